@@ -0,0 +1,3 @@
+module org.aph.braillezephyr.document {
+	exports org.aph.braillezephyr.document;
+}
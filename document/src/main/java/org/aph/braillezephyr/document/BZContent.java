@@ -0,0 +1,967 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr.document;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * This class is the content shared by the braille and ascii views.
+ * </p><p>
+ * The text is stored as a piece table.  The text given to setText is kept in
+ * one buffer and never copied again, and all inserted text is appended to a
+ * second buffer.  The document is the sequence of pieces of those buffers,
+ * which are kept in a balanced tree (a treap) where every node knows the
+ * number of characters and line breaks in its subtree.  Inserting, deleting,
+ * getLine, getLineAtOffset and getOffsetAtLine are all O(log n) however large
+ * the document is.
+ * </p><p>
+ * Line delimiters are handled the same way as the default content:  "\r\n",
+ * "\n" and a lone "\r" each end a line.  A piece never ends between the '\r'
+ * and '\n' of a "\r\n", so the line breaks of a piece are always the line
+ * breaks of its buffer.
+ * </p><p>
+ * It has the methods of SWT's StyledTextContent, but does not depend on
+ * SWT.  Invalid arguments throw IllegalArgumentException, the same as the
+ * default content.
+ * </p>
+ */
+public final class BZContent
+{
+	private final List<ChangeListener> listeners = new ArrayList<>(3);
+	private final String lineDelimiter = System.getProperty("line.separator");
+
+	private Buffer original = new Buffer(0);
+	private Buffer added = new Buffer(4096);
+	private Piece root;
+	private int seed = 0x2545f491;
+
+	//   used by split to return both trees
+	private Piece splitLeft, splitRight;
+
+	/**
+	 * <p>
+	 * Creates a new empty <code>BZContent</code>.
+	 * </p>
+	 */
+	public BZContent(){}
+
+	public void addChangeListener(ChangeListener listener)
+	{
+		if(listener == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		listeners.add(listener);
+	}
+
+	public void removeChangeListener(ChangeListener listener)
+	{
+		if(listener == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return the number of characters in the text
+	 */
+	public int getCharCount()
+	{
+		return size(root);
+	}
+
+	/**
+	 * @return the number of lines, at least 1
+	 */
+	public int getLineCount()
+	{
+		return lines(root) + 1;
+	}
+
+	/**
+	 * @return the line delimiter used for new lines
+	 */
+	public String getLineDelimiter()
+	{
+		return lineDelimiter;
+	}
+
+	/**
+	 * <p>
+	 * Returns the text of a line without its line delimiter.
+	 * </p>
+	 *
+	 * @param index the index of the line
+	 *
+	 * @return the text of the line
+	 */
+	public String getLine(int index)
+	{
+		int start = getOffsetAtLine(index);
+		return getTextRange(start, getLineEnd(index, start) - start);
+	}
+
+	/**
+	 * @param offset the offset, from 0 to the number of characters
+	 *
+	 * @return the index of the line the offset is on
+	 */
+	public int getLineAtOffset(int offset)
+	{
+		if(offset < 0 || offset > getCharCount())
+			throw new IllegalArgumentException("Argument not valid");
+		return countBreaksBefore(offset);
+	}
+
+	/**
+	 * @param index the index of the line
+	 *
+	 * @return the offset of the first character of the line
+	 */
+	public int getOffsetAtLine(int index)
+	{
+		if(index == 0)
+			return 0;
+		if(index < 0 || index >= getLineCount())
+			throw new IllegalArgumentException("Argument not valid");
+		return getBreakOffset(index - 1) + 1;
+	}
+
+	/**
+	 * @param start the offset of the first character
+	 * @param length the number of characters
+	 *
+	 * @return the characters from <code>start</code>
+	 */
+	public String getTextRange(int start, int length)
+	{
+		if(start < 0 || length < 0 || start + length > getCharCount())
+			throw new IllegalArgumentException("Argument not valid");
+		if(length == 0)
+			return "";
+		char chars[] = new char[length];
+		copyRange(root, start, start + length, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * <p>
+	 * Returns the character at <code>offset</code>.
+	 * </p>
+	 *
+	 * @param offset the offset of the character
+	 *
+	 * @return the character
+	 */
+	public char getCharAt(int offset)
+	{
+		if(offset < 0 || offset >= getCharCount())
+			throw new IllegalArgumentException("Argument not valid");
+		Piece piece = root;
+		while(true)
+		{
+			int leftSize = size(piece.left);
+			if(offset < leftSize)
+				piece = piece.left;
+			else if(offset < leftSize + piece.length)
+				return piece.buffer.chars[piece.start + offset - leftSize];
+			else
+			{
+				offset -= leftSize + piece.length;
+				piece = piece.right;
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the CRC-32 of the text as UTF-16BE, so that it can be checked
+	 * that two texts are the same without keeping a copy of either.
+	 * </p>
+	 *
+	 * @return the checksum
+	 */
+	public int getChecksum()
+	{
+		CRC32 crc = new CRC32();
+		checksum(root, crc, new byte[8192]);
+		return (int)crc.getValue();
+	}
+
+	private static void checksum(Piece piece, CRC32 crc, byte bytes[])
+	{
+		for(; piece != null; piece = piece.right)
+		{
+			checksum(piece.left, crc, bytes);
+			for(int i = 0; i < piece.length;)
+			{
+				int count = Math.min(piece.length - i, bytes.length / 2);
+				for(int j = 0; j < count; j++)
+				{
+					char c = piece.buffer.chars[piece.start + i + j];
+					bytes[j * 2] = (byte)(c >> 8);
+					bytes[j * 2 + 1] = (byte)c;
+				}
+				crc.update(bytes, 0, count * 2);
+				i += count;
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns a copy of the content that is not affected by later changes.
+	 * </p><p>
+	 * Only the tree of pieces is copied, the buffers are shared.  This is
+	 * safe because text in the buffers is never changed once written, only
+	 * appended to.  The copy may be read on another thread.
+	 * </p>
+	 *
+	 * @return the copy
+	 */
+	public BZContent getSnapshot()
+	{
+		BZContent snapshot = new BZContent();
+		snapshot.original = new Buffer(original);
+		snapshot.root = copy(root, new Buffer(added), snapshot.original);
+		return snapshot;
+	}
+
+	private Piece copy(Piece piece, Buffer addedCopy, Buffer originalCopy)
+	{
+		if(piece == null)
+			return null;
+		Piece copy = new Piece(piece.buffer == added ? addedCopy : originalCopy, piece.start, piece.length, piece.priority);
+		copy.firstBreak = piece.firstBreak;
+		copy.breaks = piece.breaks;
+		copy.size = piece.size;
+		copy.lines = piece.lines;
+		copy.left = copy(piece.left, addedCopy, originalCopy);
+		copy.right = copy(piece.right, addedCopy, originalCopy);
+		return copy;
+	}
+
+	/**
+	 * <p>
+	 * Returns a new cursor positioned before the first line.
+	 * </p>
+	 *
+	 * @return the cursor
+	 */
+	public LineCursor getLineCursor()
+	{
+		return new LineCursor();
+	}
+
+	/**
+	 * <p>
+	 * Replaces <code>replaceLength</code> characters at <code>start</code>
+	 * with <code>newText</code>, notifying the listeners before and after.
+	 * </p>
+	 *
+	 * @param start the offset of the change
+	 * @param replaceLength the number of characters to replace
+	 * @param newText the new text (cannot be null)
+	 */
+	public void replaceTextRange(int start, int replaceLength, String newText)
+	{
+		if(newText == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		if(!isValidReplace(start, replaceLength))
+			throw new IllegalArgumentException("Argument not valid");
+
+		int replaceLineCount = countBreaksBefore(start + replaceLength) - countBreaksBefore(start);
+		int newLineCount = countLineDelimiters(newText);
+		for(ChangeListener listener : listeners)
+			listener.textChanging(start, replaceLength, replaceLineCount, newText, newLineCount);
+
+		delete(start, replaceLength);
+		insert(start, newText);
+		fixBoundary(start + newText.length());
+		fixBoundary(start);
+
+		for(ChangeListener listener : listeners)
+			listener.textChanged();
+	}
+
+	/**
+	 * <p>
+	 * Sets all of the text.
+	 * </p>
+	 *
+	 * @param text the new text (cannot be null)
+	 */
+	public void setText(String text)
+	{
+		if(text == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		setText(text.toCharArray(), text.length());
+	}
+
+	/**
+	 * <p>
+	 * Sets the text to the first <code>length</code> characters of
+	 * <code>chars</code>.
+	 * </p><p>
+	 * The array is used as is and not copied, so it must not be changed
+	 * afterwards, except to fill in characters after <code>length</code>
+	 * for <code>extendText</code>.
+	 * </p>
+	 *
+	 * @param chars the characters of the new text (cannot be null)
+	 * @param length the number of characters to use
+	 */
+	public void setText(char chars[], int length)
+	{
+		if(chars == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		if(length < 0 || length > chars.length)
+			throw new IllegalArgumentException("Argument not valid");
+
+		original = new Buffer(chars, length);
+		added = new Buffer(4096);
+		if(length > 0)
+			root = newPiece(original, 0, length);
+		else
+			root = null;
+
+		for(ChangeListener listener : listeners)
+			listener.textSet();
+	}
+
+	/**
+	 * <p>
+	 * Appends the characters from the end of the original text up to
+	 * <code>length</code> of the array last passed to
+	 * <code>setText(char[], int)</code>.  This allows a file to be shown
+	 * while the rest of it is still being read into the array, without
+	 * copying it.
+	 * </p><p>
+	 * The text is appended after any changes made since, and may not split
+	 * a "\r\n".
+	 * </p>
+	 *
+	 * @param length the new length of the original text
+	 */
+	public void extendText(int length)
+	{
+		int start = original.length;
+		if(length < start || length > original.chars.length)
+			throw new IllegalArgumentException("Argument not valid");
+		if(length == start)
+			return;
+
+		int charCount = getCharCount();
+		if(original.chars[start] == '\n')
+		if((start > 0 && original.chars[start - 1] == '\r') || (charCount > 0 && getCharAt(charCount - 1) == '\r'))
+			throw new IllegalArgumentException("Argument not valid");
+
+		String newText = new String(original.chars, start, length - start);
+		int newLineCount = countLineDelimiters(newText);
+		for(ChangeListener listener : listeners)
+			listener.textChanging(charCount, 0, 0, newText, newLineCount);
+
+		original.length = length;
+		original.addBreaks(start, length);
+
+		Piece last = root;
+		if(last != null)
+		while(last.right != null)
+			last = last.right;
+		if(last != null && last.buffer == original && last.start + last.length == start)
+			extendRightmost(root, length - start);
+		else
+			root = merge(root, newPiece(original, start, length - start));
+
+		for(ChangeListener listener : listeners)
+			listener.textChanged();
+	}
+
+	/**
+	 * <p>
+	 * Same checks as the default content, replacing may not start or end
+	 * between the '\r' and '\n' of a "\r\n".
+	 * </p>
+	 */
+	private boolean isValidReplace(int start, int replaceLength)
+	{
+		int charCount = getCharCount();
+		if(start < 0 || replaceLength < 0 || start + replaceLength > charCount)
+			return false;
+
+		if(replaceLength == 0)
+		{
+			if(start == 0 || start == charCount)
+				return true;
+			return !(getCharAt(start - 1) == '\r' && getCharAt(start) == '\n');
+		}
+
+		if(start > 0 && getCharAt(start) == '\n' && getCharAt(start - 1) == '\r')
+			return false;
+		int end = start + replaceLength;
+		if(end < charCount && getCharAt(end - 1) == '\r' && getCharAt(end) == '\n')
+			return false;
+		return true;
+	}
+
+	private static int countLineDelimiters(String text)
+	{
+		int count = 0;
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if(c == '\n')
+				count++;
+			else if(c == '\r')
+			{
+				count++;
+				if(i + 1 < text.length() && text.charAt(i + 1) == '\n')
+					i++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * <p>
+	 * Returns the offset where the delimiter of line <code>index</code>
+	 * begins, or the character count for the last line.
+	 * </p>
+	 */
+	private int getLineEnd(int index, int lineStart)
+	{
+		if(index == getLineCount() - 1)
+			return getCharCount();
+		int end = getBreakOffset(index);
+		if(end > lineStart && getCharAt(end) == '\n' && getCharAt(end - 1) == '\r')
+			end--;
+		return end;
+	}
+
+	/**
+	 * <p>
+	 * Returns the offset of the last character of the line delimiter that
+	 * ends line <code>index</code>.
+	 * </p>
+	 */
+	private int getBreakOffset(int index)
+	{
+		Piece piece = root;
+		int base = 0;
+		while(true)
+		{
+			int leftLines = lines(piece.left);
+			if(index < leftLines)
+			{
+				piece = piece.left;
+				continue;
+			}
+			index -= leftLines;
+			base += size(piece.left);
+			if(index < piece.breaks)
+				return base + piece.buffer.breaks[piece.firstBreak + index] - piece.start;
+			index -= piece.breaks;
+			base += piece.length;
+			piece = piece.right;
+		}
+	}
+
+	private int countBreaksBefore(int offset)
+	{
+		Piece piece = root;
+		int count = 0;
+		while(piece != null)
+		{
+			int leftSize = size(piece.left);
+			if(offset <= leftSize)
+			{
+				piece = piece.left;
+				continue;
+			}
+			count += lines(piece.left);
+			offset -= leftSize;
+			if(offset <= piece.length)
+				return count + piece.buffer.lowerBound(piece.start + offset) - piece.firstBreak;
+			count += piece.breaks;
+			offset -= piece.length;
+			piece = piece.right;
+		}
+		return count;
+	}
+
+	private void copyRange(Piece piece, int start, int end, char chars[], int base)
+	{
+		while(piece != null && start < end)
+		{
+			int leftSize = size(piece.left);
+			if(start < leftSize)
+				copyRange(piece.left, start, Math.min(end, leftSize), chars, base);
+
+			int from = Math.max(start, leftSize);
+			int to = Math.min(end, leftSize + piece.length);
+			if(from < to)
+				System.arraycopy(piece.buffer.chars, piece.start + from - leftSize, chars, base + from - start, to - from);
+
+			//   continue with right subtree without recursing
+			int rightStart = leftSize + piece.length;
+			if(end <= rightStart)
+				return;
+			if(start < rightStart)
+			{
+				base += rightStart - start;
+				start = rightStart;
+			}
+			start -= rightStart;
+			end -= rightStart;
+			piece = piece.right;
+		}
+	}
+
+	private void writeRange(Piece piece, int start, int end, Writer writer) throws IOException
+	{
+		while(piece != null && start < end)
+		{
+			int leftSize = size(piece.left);
+			if(start < leftSize)
+				writeRange(piece.left, start, Math.min(end, leftSize), writer);
+
+			int from = Math.max(start, leftSize);
+			int to = Math.min(end, leftSize + piece.length);
+			if(from < to)
+				writer.write(piece.buffer.chars, piece.start + from - leftSize, to - from);
+
+			int rightStart = leftSize + piece.length;
+			if(end <= rightStart)
+				return;
+			start = Math.max(start, rightStart) - rightStart;
+			end -= rightStart;
+			piece = piece.right;
+		}
+	}
+
+	private void insert(int offset, String text)
+	{
+		if(text.length() == 0)
+			return;
+
+		split(root, offset);
+		Piece left = splitLeft, right = splitRight;
+
+		int start = added.append(text);
+		Piece last = left;
+		if(last != null)
+		while(last.right != null)
+			last = last.right;
+
+		//   typing at the end of the last insert just extends its piece
+		if(last != null && last.buffer == added && last.start + last.length == start)
+			extendRightmost(left, text.length());
+		else
+			left = merge(left, newPiece(added, start, text.length()));
+
+		root = merge(left, right);
+	}
+
+	private void delete(int offset, int length)
+	{
+		if(length == 0)
+			return;
+
+		split(root, offset);
+		Piece left = splitLeft;
+		split(splitRight, length);
+		root = merge(left, splitRight);
+	}
+
+	/**
+	 * <p>
+	 * An edit may leave a '\r' at the end of one piece and a '\n' at the
+	 * start of the next.  Replace both with a single "\r\n" piece so that
+	 * the line breaks of each piece stay the line breaks of its buffer.
+	 * </p>
+	 */
+	private void fixBoundary(int offset)
+	{
+		if(offset < 1 || offset >= getCharCount())
+			return;
+		if(getCharAt(offset - 1) != '\r' || getCharAt(offset) != '\n')
+			return;
+		delete(offset - 1, 2);
+		insert(offset - 1, "\r\n");
+	}
+
+	private Piece newPiece(Buffer buffer, int start, int length)
+	{
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		Piece piece = new Piece(buffer, start, length, seed);
+		piece.firstBreak = buffer.lowerBound(start);
+		piece.breaks = buffer.lowerBound(start + length) - piece.firstBreak;
+		piece.size = length;
+		piece.lines = piece.breaks;
+		return piece;
+	}
+
+	private void extendRightmost(Piece piece, int length)
+	{
+		if(piece.right != null)
+			extendRightmost(piece.right, length);
+		else
+		{
+			piece.length += length;
+			piece.breaks = piece.buffer.lowerBound(piece.start + piece.length) - piece.firstBreak;
+		}
+		update(piece);
+	}
+
+	/**
+	 * <p>
+	 * Splits the tree so that <code>splitLeft</code> holds the first
+	 * <code>offset</code> characters and <code>splitRight</code> holds the
+	 * rest.  A piece that spans the offset is cut in two.
+	 * </p>
+	 */
+	private void split(Piece piece, int offset)
+	{
+		if(piece == null)
+		{
+			splitLeft = splitRight = null;
+			return;
+		}
+
+		int leftSize = size(piece.left);
+		if(offset <= leftSize)
+		{
+			split(piece.left, offset);
+			piece.left = splitRight;
+			update(piece);
+			splitRight = piece;
+		}
+		else if(offset >= leftSize + piece.length)
+		{
+			split(piece.right, offset - leftSize - piece.length);
+			piece.right = splitLeft;
+			update(piece);
+			splitLeft = piece;
+		}
+		else
+		{
+			int at = offset - leftSize;
+			Piece tail = newPiece(piece.buffer, piece.start + at, piece.length - at);
+			Piece right = piece.right;
+			piece.length = at;
+			piece.breaks = tail.firstBreak - piece.firstBreak;
+			piece.right = null;
+			update(piece);
+			splitLeft = piece;
+			splitRight = merge(tail, right);
+		}
+	}
+
+	private static Piece merge(Piece left, Piece right)
+	{
+		if(left == null)
+			return right;
+		if(right == null)
+			return left;
+
+		if(left.priority > right.priority)
+		{
+			left.right = merge(left.right, right);
+			update(left);
+			return left;
+		}
+
+		right.left = merge(left, right.left);
+		update(right);
+		return right;
+	}
+
+	private static void update(Piece piece)
+	{
+		piece.size = size(piece.left) + piece.length + size(piece.right);
+		piece.lines = lines(piece.left) + piece.breaks + lines(piece.right);
+	}
+
+	private static int size(Piece piece)
+	{
+		return piece == null ? 0 : piece.size;
+	}
+
+	private static int lines(Piece piece)
+	{
+		return piece == null ? 0 : piece.lines;
+	}
+
+	/**
+	 * <p>
+	 * Walks the lines of the content in order so that they can be written
+	 * without creating a String for each line.  The characters are written
+	 * directly from the buffers of the pieces.
+	 * </p><p>
+	 * The content must not be changed while the cursor is in use.
+	 * </p>
+	 */
+	public final class LineCursor
+	{
+		private int index = -1;
+		private int start, end, next;
+
+		private LineCursor(){}
+
+		/**
+		 * <p>
+		 * Moves to the next line.
+		 * </p>
+		 *
+		 * @return false if there are no more lines
+		 */
+		public boolean next()
+		{
+			if(index + 1 >= getLineCount())
+				return false;
+			index++;
+			start = next;
+			end = getLineEnd(index, start);
+			if(index < getLineCount() - 1)
+				next = getBreakOffset(index) + 1;
+			return true;
+		}
+
+		/**
+		 * <p>
+		 * Returns the index of the current line.
+		 * </p>
+		 *
+		 * @return the index
+		 */
+		public int getIndex()
+		{
+			return index;
+		}
+
+		/**
+		 * <p>
+		 * Returns the length of the current line without its delimiter.
+		 * </p>
+		 *
+		 * @return the length
+		 */
+		public int getLength()
+		{
+			return end - start;
+		}
+
+		/**
+		 * <p>
+		 * Returns the last character of the current line, or 0 if it is
+		 * empty.
+		 * </p>
+		 *
+		 * @return the character
+		 */
+		public char getLastChar()
+		{
+			if(end == start)
+				return 0;
+			return getCharAt(end - 1);
+		}
+
+		/**
+		 * <p>
+		 * Writes the characters of the current line from <code>from</code>
+		 * up to <code>to</code> to <code>writer</code>.
+		 * </p>
+		 *
+		 * @param writer the writer stream to write the characters
+		 * @param from the index in the line of the first character
+		 * @param to the index in the line after the last character
+		 *
+		 * @exception IOException
+		 */
+		public void write(Writer writer, int from, int to) throws IOException
+		{
+			if(from < 0 || from > to || to > end - start)
+				throw new IllegalArgumentException("Argument not valid");
+			writeRange(root, start + from, start + to, writer);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Notified before and after each change to the content.
+	 * </p>
+	 *
+	 * @see #addChangeListener(ChangeListener)
+	 */
+	public interface ChangeListener
+	{
+		/**
+		 * @param start the offset of the change
+		 * @param replaceCharCount the number of characters replaced
+		 * @param replaceLineCount the number of line delimiters replaced
+		 * @param newText the new text
+		 * @param newLineCount the number of line delimiters in the new text
+		 */
+		void textChanging(int start, int replaceCharCount, int replaceLineCount, String newText, int newLineCount);
+
+		void textChanged();
+
+		/**
+		 * <p>
+		 * Called instead of the other methods when all of the text is set.
+		 * </p>
+		 */
+		void textSet();
+	}
+
+	/**
+	 * <p>
+	 * A node of the tree, which is a span of one of the buffers.
+	 * </p>
+	 */
+	private static final class Piece
+	{
+		private final Buffer buffer;
+		private final int start;
+		private final int priority;
+
+		private int length;
+		private int firstBreak, breaks;
+
+		private Piece left, right;
+		private int size, lines;
+
+		private Piece(Buffer buffer, int start, int length, int priority)
+		{
+			this.buffer = buffer;
+			this.start = start;
+			this.length = length;
+			this.priority = priority;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Holds the characters of the original or added text, and the sorted
+	 * offsets of the last character of every line delimiter in it.
+	 * </p>
+	 */
+	private static final class Buffer
+	{
+		private char chars[];
+		private int length;
+		private int breaks[];
+		private int breakCount;
+
+		private Buffer(int capacity)
+		{
+			chars = new char[capacity];
+			breaks = new int[16];
+		}
+
+		/**
+		 * <p>
+		 * Creates a view of the text currently in <code>buffer</code>.
+		 * </p>
+		 */
+		private Buffer(Buffer buffer)
+		{
+			chars = buffer.chars;
+			length = buffer.length;
+			breaks = buffer.breaks;
+			breakCount = buffer.breakCount;
+		}
+
+		private Buffer(char chars[], int length)
+		{
+			this.chars = chars;
+			this.length = length;
+			breaks = new int[16];
+			addBreaks(0, length);
+		}
+
+		/**
+		 * <p>
+		 * Appends <code>text</code> and returns the offset it was stored at.
+		 * </p>
+		 */
+		private int append(String text)
+		{
+			//   keep a new '\n' from joining a previous '\r'
+			if(length > 0 && chars[length - 1] == '\r' && text.charAt(0) == '\n')
+				ensureCapacity(1)[length++] = 0;
+
+			int start = length;
+			text.getChars(0, text.length(), ensureCapacity(text.length()), start);
+			length += text.length();
+			addBreaks(start, length);
+			return start;
+		}
+
+		private char[] ensureCapacity(int extra)
+		{
+			if(length + extra > chars.length)
+			{
+				char grown[] = new char[Math.max(length + extra, chars.length * 2)];
+				System.arraycopy(chars, 0, grown, 0, length);
+				chars = grown;
+			}
+			return chars;
+		}
+
+		private void addBreaks(int start, int end)
+		{
+			for(int i = start; i < end; i++)
+			{
+				char c = chars[i];
+				if(c == '\n' || (c == '\r' && (i + 1 == end || chars[i + 1] != '\n')))
+				{
+					if(breakCount == breaks.length)
+					{
+						int grown[] = new int[breakCount * 2];
+						System.arraycopy(breaks, 0, grown, 0, breakCount);
+						breaks = grown;
+					}
+					breaks[breakCount++] = i;
+				}
+			}
+		}
+
+		/**
+		 * <p>
+		 * Returns the index of the first break at or after
+		 * <code>offset</code>.
+		 * </p>
+		 */
+		private int lowerBound(int offset)
+		{
+			int low = 0, high = breakCount;
+			while(low < high)
+			{
+				int middle = (low + high) >>> 1;
+				if(breaks[middle] < offset)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+	}
+}
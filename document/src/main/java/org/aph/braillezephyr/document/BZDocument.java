@@ -0,0 +1,1787 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr.document;
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * <p>
+ * This class is the document shown by the braille and ascii views:  the
+ * text, the page settings, the undo history and whether it has been saved,
+ * along with reading and writing BRF and BrailleZephyr files.
+ * </p><p>
+ * Nothing here uses a Display, so a document can be read, edited and
+ * written without any widgets, like by the command line converter.  A
+ * document is not thread safe, but it may be used from any one thread at a
+ * time.  The views share its content, so changes made through either view
+ * are changes to the document.
+ * </p>
+ */
+public final class BZDocument
+{
+	public static final char PARAGRAPH_END = 0xfeff;
+
+	//   about how many characters are wrapped by each task of a reflow
+	private static final int REFLOW_PART_SIZE = 0x10000;
+
+	private final BZContent content = new BZContent();
+	private final int versionMajor, versionMinor, versionPatch;
+
+	private String eol = System.getProperty("line.separator");
+	private int linesPerPage = 25;
+	private final BZPageIndex pageIndex = new BZPageIndex(linesPerPage);
+	private int charsPerLine = 40;
+	private int caretOffset;
+	private boolean brailleFocus = true;
+
+	private final BZUndoHistory history = new BZUndoHistory(16 * 1024 * 1024);
+	private boolean restoring, recording = true;
+	private int batchDepth;
+	private int modifyCount;
+	private final List<EditListener> editListeners = new ArrayList<>();
+
+	/**
+	 * <p>
+	 * Creates a new empty <code>BZDocument</code>.
+	 * </p>
+	 */
+	public BZDocument()
+	{
+		String version = findVersion();
+		if(version == null)
+			version = "0.0";
+		versionMajor = getVersionNumber(version, 0);
+		versionMinor = getVersionNumber(version, 1);
+		versionPatch = getVersionNumber(version, 2);
+
+		content.addChangeListener(new ContentHandler());
+	}
+
+	/**
+	 * <p>
+	 * Returns the version from the jar manifest, or from the build file when
+	 * not run from a jar.
+	 * </p>
+	 *
+	 * @return the version, or null if it cannot be determined
+	 */
+	public static String findVersion()
+	{
+		//   version from jar manifest
+		String version = BZDocument.class.getPackage().getImplementationVersion();
+
+		//   version from build file
+		if(version == null)
+			version = System.getProperty("braillezephyr.version");
+
+		return version;
+	}
+
+	private static int getVersionNumber(String version, int index)
+	{
+		String[] versionStrings = version.split("\\.");
+		if(versionStrings.length > index)
+			return Integer.parseInt(versionStrings[index]);
+		return 0;
+	}
+
+	/**
+	 * <p>
+	 * Returns the content, which is shared by the views.
+	 * </p>
+	 *
+	 * @return the content
+	 */
+	public BZContent getContent()
+	{
+		return content;
+	}
+
+	/**
+	 * <p>
+	 * Sets the text, clearing the undo history.
+	 * </p>
+	 *
+	 * @param text the new text
+	 */
+	public void setText(String text)
+	{
+		content.setText(text);
+		clearChanges();
+	}
+
+	public int getLinesPerPage()
+	{
+		return linesPerPage;
+	}
+
+	public void setLinesPerPage(int linesPerPage)
+	{
+		this.linesPerPage = linesPerPage;
+		pageIndex.setLinesPerPage(linesPerPage);
+	}
+
+	public int getCharsPerLine()
+	{
+		return charsPerLine;
+	}
+
+	public void setCharsPerLine(int charsPerLine)
+	{
+		this.charsPerLine = charsPerLine;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of pages in the text.
+	 * </p>
+	 *
+	 * @return the number of pages, at least 1
+	 */
+	public int getPageCount()
+	{
+		return pageIndex.getPageCount(content.getLineCount());
+	}
+
+	/**
+	 * @see BZPageIndex#isPageStart(int)
+	 */
+	public boolean isPageStart(int line)
+	{
+		return pageIndex.isPageStart(line);
+	}
+
+	/**
+	 * @see BZPageIndex#getPageAtLine(int)
+	 */
+	public int getPageAtLine(int line)
+	{
+		return pageIndex.getPageAtLine(line);
+	}
+
+	/**
+	 * @see BZPageIndex#getLineInPage(int)
+	 */
+	public int getLineInPage(int line)
+	{
+		return pageIndex.getLineInPage(line);
+	}
+
+	/**
+	 * @see BZPageIndex#getLineAtPage(int)
+	 */
+	public int getLineAtPage(int page)
+	{
+		return pageIndex.getLineAtPage(page);
+	}
+
+	public void clearChanges()
+	{
+		history.clear();
+	}
+
+	/**
+	 * <p>
+	 * Returns the most memory the undo history may use.
+	 * </p>
+	 *
+	 * @return the limit in bytes
+	 *
+	 * @see #setUndoMemoryLimit(int)
+	 */
+	public int getUndoMemoryLimit()
+	{
+		return history.getMemoryLimit();
+	}
+
+	/**
+	 * <p>
+	 * Sets the most memory the undo history may use.  When the changes use
+	 * more, the oldest ones are forgotten and can no longer be undone.  The
+	 * default is 16 megabytes.
+	 * </p>
+	 *
+	 * @param bytes the limit in bytes
+	 */
+	public void setUndoMemoryLimit(int bytes)
+	{
+		history.setMemoryLimit(bytes);
+	}
+
+	/**
+	 * <p>
+	 * Returns whether or not the text has been modified and needs to be
+	 * saved.
+	 * </p>
+	 *
+	 * @return whether or not the text has been modified.
+	 *
+	 * @see #undo()
+	 * @see #redo()
+	 */
+	public boolean getModified()
+	{
+		return history.isModified();
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of changes made to the text since it was created.
+	 * This only ever increases, so it can be used to tell if the text was
+	 * changed between two points in time.
+	 * </p>
+	 *
+	 * @return the number of changes
+	 */
+	public int getModifyCount()
+	{
+		return modifyCount;
+	}
+
+	/**
+	 * <p>
+	 * Adds a listener that is notified of every change to the text, whether
+	 * or not it can be undone.  Text added by
+	 * <code>appendFileContents</code> is part of the file being read, not a
+	 * change, so it is not notified.
+	 * </p>
+	 *
+	 * @param editListener the listener to add
+	 */
+	public void addEditListener(EditListener editListener)
+	{
+		editListeners.add(editListener);
+	}
+
+	/**
+	 * <p>
+	 * Starts a batch of changes, which are undone and redone together as
+	 * one change.  Batches may be nested, only the outermost one groups the
+	 * changes.
+	 * </p>
+	 *
+	 * @see #commitBatch()
+	 */
+	public void beginBatch()
+	{
+		if(batchDepth++ == 0)
+			history.startGroup();
+	}
+
+	/**
+	 * <p>
+	 * Ends the batch started by the matching {@link #beginBatch()}.
+	 * </p>
+	 *
+	 * @throws IllegalStateException if no batch was started
+	 */
+	public void commitBatch()
+	{
+		if(batchDepth == 0)
+			throw new IllegalStateException("no batch to commit");
+		if(--batchDepth == 0)
+			history.endGroup();
+	}
+
+	/**
+	 * <p>
+	 * Returns whether a batch of changes was started and not yet committed.
+	 * </p>
+	 */
+	public boolean isBatchOpen()
+	{
+		return batchDepth > 0;
+	}
+
+	/**
+	 * <p>
+	 * Undoes the last change.
+	 * </p>
+	 *
+	 * @return the offset after the text that was restored, or -1 if there
+	 *         was nothing to undo
+	 *
+	 * @see #redo()
+	 * @see #getModified()
+	 */
+	public int undo()
+	{
+		if(!history.canUndo())
+			return -1;
+		int change, start;
+		restoring = true;
+		do
+		{
+			change = history.undo();
+			start = history.getStart(change);
+			content.replaceTextRange(start, history.getNewLength(change), history.getOldText(change));
+		}
+		while(history.isGrouped(change) && history.canUndo());
+		restoring = false;
+		return start + history.getOldLength(change);
+	}
+
+	/**
+	 * <p>
+	 * Undoes the last undo.
+	 * </p>
+	 *
+	 * @return the offset after the text that was restored, or -1 if there
+	 *         was nothing to redo
+	 *
+	 * @see #undo()
+	 * @see #getModified()
+	 */
+	public int redo()
+	{
+		if(!history.canRedo())
+			return -1;
+		int change, start;
+		restoring = true;
+		do
+		{
+			change = history.redo();
+			start = history.getStart(change);
+			content.replaceTextRange(start, history.getOldLength(change), history.getNewText(change));
+		}
+		while(history.isRedoGrouped());
+		restoring = false;
+		return start + history.getNewLength(change);
+	}
+
+	/**
+	 * <p>
+	 * Reads data in BRF format from <code>Reader</code>.
+	 * </p><p>
+	 * Each form feed is recorded as a page break, and the number of lines per
+	 * page is taken from the first page.
+	 * </p>
+	 *
+	 * @param reader the reader stream from which to read the data.
+	 *
+	 * @exception IOException
+	 *
+	 * @see #writeBRF(Writer)
+	 */
+	public void readBRF(Reader reader) throws IOException
+	{
+		FileContents contents = new FileContents(0);
+		char buffer[] = new char[65536];
+		int cnt, lines = 0;
+
+		while((cnt = reader.read(buffer)) > 0)
+		{
+			char chars[] = contents.ensureCapacity(cnt);
+			int length = contents.length;
+			for(int i = 0; i < cnt; i++)
+			{
+				char c = buffer[i];
+				if(c == 0xc)
+				{
+					contents.addFormFeed(lines);
+					continue;
+				}
+
+				if(c == '\n')
+				{
+					if(contents.eol == null)
+					if(length > 0 && chars[length - 1] == '\r')
+						contents.eol = "\r\n";
+					else
+						contents.eol = "\n";
+					lines++;
+				}
+				chars[length++] = c;
+			}
+			contents.length = length;
+		}
+		if(contents.eol == null)
+			contents.eol = "\n";
+		contents.endPages(lines);
+		setFileContents(contents);
+	}
+
+	/**
+	 * <p>
+	 * Reads data in BRF format from the bytes remaining in
+	 * <code>ByteBuffer</code>.
+	 * </p>
+	 *
+	 * @param bytes the buffer from which to read the data, such as a mapped
+	 *              file
+	 *
+	 * @see #parseBRF(ByteBuffer, FileContents)
+	 * @see #writeBRF(Writer)
+	 */
+	public void readBRF(ByteBuffer bytes)
+	{
+		FileContents contents = new FileContents(bytes.remaining());
+		parseBRF(bytes, contents);
+		setFileContents(contents);
+	}
+
+	/**
+	 * <p>
+	 * Reads data in BRF format from the bytes remaining in
+	 * <code>ByteBuffer</code> into <code>contents</code>.  This may be
+	 * called from any thread.
+	 * </p><p>
+	 * The bytes are decoded one to one into the text, each form feed is
+	 * removed and recorded as a page break, and the number of lines per page
+	 * is taken from the first page, all in a single pass.  Bytes above 0x7f, which are not valid in a BRF file, are
+	 * kept as ISO-8859-1 characters.
+	 * </p>
+	 *
+	 * @param bytes the buffer from which to read the data
+	 * @param contents where the text and settings are stored
+	 *
+	 * @exception CancellationException if <code>contents</code> is cancelled
+	 *
+	 * @see #setFileContents(FileContents)
+	 */
+	public static void parseBRF(ByteBuffer bytes, FileContents contents)
+	{
+		char chars[] = contents.ensureCapacity(bytes.remaining());
+		byte buffer[] = new byte[65536];
+		int length = contents.length, lines = 0;
+
+		while(bytes.hasRemaining())
+		{
+			int cnt = Math.min(buffer.length, bytes.remaining());
+			bytes.get(buffer, 0, cnt);
+			for(int i = 0; i < cnt; i++)
+			{
+				char c = (char)(buffer[i] & 0xff);
+				if(c == 0xc)
+				{
+					contents.addFormFeed(lines);
+					continue;
+				}
+
+				if(c == '\n')
+				{
+					if(contents.eol == null)
+					if(length > 0 && chars[length - 1] == '\r')
+						contents.eol = "\r\n";
+					else
+						contents.eol = "\n";
+					lines++;
+				}
+				chars[length++] = c;
+			}
+			contents.addRead(cnt);
+			contents.length = length;
+			contents.publish(false);
+		}
+		if(contents.eol == null)
+			contents.eol = "\n";
+		contents.endPages(lines);
+		contents.length = length;
+		contents.publish(true);
+	}
+
+	/**
+	 * <p>
+	 * Reads data in BrailleZephyr file format from <code>Reader</code>.
+	 * </p>
+	 *
+	 * @param reader the reader stream from which to read the data.
+	 *
+	 * @exception IOException
+	 * @exception BZException
+	 *
+	 * @see #parseBZY(Reader, FileContents)
+	 * @see #writeBZY(Writer)
+	 */
+	public void readBZY(Reader reader) throws IOException, BZException
+	{
+		FileContents contents = new FileContents(0);
+		parseBZY(reader, contents);
+		setFileContents(contents);
+	}
+
+	/**
+	 * <p>
+	 * Reads data in BrailleZephyr file format from <code>Reader</code> into
+	 * <code>contents</code>.  This may be called from any thread.
+	 * </p>
+	 *
+	 * @param reader the reader stream from which to read the data.
+	 * @param contents where the text and settings are stored
+	 *
+	 * @exception IOException
+	 * @exception BZException
+	 * @exception CancellationException if <code>contents</code> is cancelled
+	 *
+	 * @see #setFileContents(FileContents)
+	 */
+	public static void parseBZY(Reader reader, FileContents contents) throws IOException, BZException
+	{
+		String line;
+		boolean returnAtEnd = false;
+		int unknown = 0;
+
+		String eol = System.getProperty("line.separator");
+		contents.eol = eol;
+		BufferedReader buffer = new BufferedReader(reader);
+
+		//   read configuration lines
+		header:while((line = buffer.readLine()) != null)
+		{
+			contents.addRead(line.length() + 1);
+			String tokens[] = line.split(" ");
+			switch(tokens[0])
+			{
+
+			//   don't do anything for now
+			case "Version":  break;
+
+			case "CharsPerLine":  contents.charsPerLine = Integer.parseInt(tokens[1]);  break;
+			case "LinesPerPage":  contents.linesPerPage = Integer.parseInt(tokens[1]);  break;
+
+			case "CaretOffset":  contents.caretOffset  = Integer.parseInt(tokens[1]);  break;
+			case "PageBreaks":
+
+				for(int i = 1; i < tokens.length; i++)
+					contents.addPageBreak(Integer.parseInt(tokens[i]));
+				break;
+
+			case "ViewFocus":
+
+				if(tokens[1].equals("braille") || tokens[1].equals("ascii"))
+					contents.viewFocus = tokens[1];
+				else
+					contents.messages.add("ERROR:  Invalid ViewFocus value:  " + line);
+				break;
+
+			case "ReturnAtEnd":  returnAtEnd = Boolean.parseBoolean(tokens[1]); break;
+
+			case "HeaderEnd":  break header;
+
+			default:
+
+				contents.messages.add("WARNING:  Unknown file format parameter:  " + line);
+				unknown++;
+				if(unknown > 6)
+					throw new BZException("Invalid file format");
+				break;
+			}
+		}
+		if(line == null)
+			throw new BZException("Invalid file format");
+
+		readBZYText(buffer, eol, contents);
+		if(returnAtEnd)
+			contents.append(eol);
+	}
+
+	/**
+	 * <p>
+	 * Reads the text after the header of a BrailleZephyr file in one pass.
+	 * </p><p>
+	 * Lines are joined with <code>eol</code> whatever their line endings are
+	 * in the file, and a 0xb6 at the end of a line is changed to
+	 * PARAGRAPH_END.  As with <code>BufferedReader.readLine</code>, the line
+	 * ending after the last line does not start an empty line.
+	 * </p>
+	 *
+	 * @param reader the reader positioned after the HeaderEnd line
+	 * @param eol the line separator to use
+	 * @param contents where the text is appended
+	 *
+	 * @exception IOException
+	 */
+	private static void readBZYText(Reader reader, String eol, FileContents contents) throws IOException
+	{
+		char buffer[] = new char[65536];
+		boolean afterReturn = false, lineEnded = false;
+		int lineStart = contents.length, cnt;
+
+		while((cnt = reader.read(buffer)) > 0)
+		{
+			for(int i = 0; i < cnt; i++)
+			{
+				char c = buffer[i];
+				if(c == '\n' && afterReturn)
+				{
+					afterReturn = false;
+					continue;
+				}
+				afterReturn = c == '\r';
+
+				//   separator is only written once the next line is known to exist
+				if(lineEnded)
+				{
+					contents.append(eol);
+					lineStart = contents.length;
+					lineEnded = false;
+				}
+
+				if(c == '\r' || c == '\n')
+				{
+					contents.markParagraphEnd(lineStart);
+					lineEnded = true;
+				}
+				else
+					contents.append(c);
+			}
+			contents.addRead(cnt);
+		}
+
+		if(!lineEnded)
+			contents.markParagraphEnd(lineStart);
+	}
+
+	/**
+	 * <p>
+	 * Sets the text and settings that were read by parseBRF or parseBZY.
+	 * </p><p>
+	 * The text replaces the current text in one change and the undo history
+	 * is cleared.
+	 * </p>
+	 *
+	 * @param contents what was read from the file
+	 */
+	public void setFileContents(FileContents contents)
+	{
+		eol = contents.eol;
+		if(contents.linesPerPage >= 0)
+			linesPerPage = contents.linesPerPage;
+		pageIndex.setLinesPerPage(linesPerPage);
+		if(contents.charsPerLine >= 0)
+			charsPerLine = contents.charsPerLine;
+
+		content.setText(contents.text, contents.length);
+		pageIndex.setPageBreaks(contents.pageBreaks, contents.pageBreakCount);
+		caretOffset = contents.getCaretOffset();
+		brailleFocus = !"ascii".equals(contents.viewFocus);
+		clearChanges();
+	}
+
+	/**
+	 * <p>
+	 * Sets the text of a file that is still being read.  The rest of the
+	 * text is added by <code>appendFileContents</code> and
+	 * <code>finishFileContents</code>.
+	 * </p><p>
+	 * The text is not copied, <code>contents</code> keeps reading into the
+	 * same array past the part being shown.
+	 * </p>
+	 *
+	 * @param contents the text read so far
+	 *
+	 * @see #appendFileContents(FileContents)
+	 * @see #finishFileContents(FileContents)
+	 */
+	public void startFileContents(FileContents contents)
+	{
+		int available = contents.getAvailable();
+		if(contents.eol != null)
+			eol = contents.eol;
+		if(contents.linesPerPage >= 0)
+			linesPerPage = contents.linesPerPage;
+		pageIndex.setLinesPerPage(linesPerPage);
+
+		content.setText(contents.text, available);
+		contents.shown = available;
+		clearChanges();
+	}
+
+	/**
+	 * <p>
+	 * Adds the text read since it was last shown.  This is not recorded in
+	 * the undo history, and edit listeners are not notified of it.
+	 * </p>
+	 *
+	 * @param contents the text being read
+	 */
+	public void appendFileContents(FileContents contents)
+	{
+		int available = contents.getAvailable();
+		if(available <= contents.shown)
+			return;
+		recording = false;
+		try
+		{
+			content.extendText(available);
+		}
+		finally
+		{
+			recording = true;
+		}
+		contents.shown = available;
+	}
+
+	/**
+	 * <p>
+	 * Adds the rest of the text once the file has been read, along with the
+	 * settings that are only known at the end.
+	 * </p>
+	 *
+	 * @param contents the text that was read
+	 */
+	public void finishFileContents(FileContents contents)
+	{
+		appendFileContents(contents);
+		pageIndex.setPageBreaks(contents.pageBreaks, contents.pageBreakCount);
+		eol = contents.eol;
+		if(contents.linesPerPage >= 0)
+			linesPerPage = contents.linesPerPage;
+		pageIndex.setLinesPerPage(linesPerPage);
+		clearChanges();
+	}
+
+	/**
+	 * <p>
+	 * Writes data in BRF format to <code>Writer</code>.
+	 * </p>
+	 *
+	 * @param writer the writer stream to write the data.
+	 *
+	 * @exception IOException
+	 *
+	 * @see #readBRF(ByteBuffer)
+	 */
+	public void writeBRF(Writer writer) throws IOException
+	{
+		FileSnapshot snapshot = getFileSnapshot(caretOffset, brailleFocus);
+		snapshot.writeBRF(writer);
+		setSaved(snapshot);
+	}
+
+	/**
+	 * <p>
+	 * Writes data in BrailleZephyr file format to <code>Writer</code>.  The
+	 * caret offset and view focus are the ones last read from a file.
+	 * </p>
+	 *
+	 * @param writer the writer stream to write the data.
+	 *
+	 * @exception IOException
+	 *
+	 * @see #readBZY(Reader)
+	 */
+	public void writeBZY(Writer writer) throws IOException
+	{
+		FileSnapshot snapshot = getFileSnapshot(caretOffset, brailleFocus);
+		snapshot.writeBZY(writer);
+		setSaved(snapshot);
+	}
+
+	/**
+	 * <p>
+	 * Returns a copy of the text and settings that can be written on
+	 * another thread while the text continues to be edited.
+	 * </p><p>
+	 * The copy shares the text buffers, so this takes time proportional to
+	 * the number of edits rather than the length of the text.
+	 * </p>
+	 *
+	 * @param caretOffset the caret offset to write
+	 * @param brailleFocus whether the braille view has the focus
+	 *
+	 * @return the snapshot
+	 *
+	 * @see #setSaved(FileSnapshot)
+	 */
+	public FileSnapshot getFileSnapshot(int caretOffset, boolean brailleFocus)
+	{
+		return new FileSnapshot(this, caretOffset, brailleFocus);
+	}
+
+	/**
+	 * <p>
+	 * Marks the text as saved once <code>snapshot</code> has been written.
+	 * If the text was changed after the snapshot was taken it is still
+	 * marked as modified.
+	 * </p>
+	 *
+	 * @param snapshot the snapshot that was written
+	 */
+	public void setSaved(FileSnapshot snapshot)
+	{
+		if(snapshot.modifyCount == modifyCount)
+			history.setSaved();
+		else
+			history.setUnsaved();
+	}
+
+	/**
+	 * <p>
+	 * Wraps lines at and below <code>startLine</code> to the end of the
+	 * paragraph that exceed the number of characters per line.
+	 * </p><p>
+	 * Lines are wrapped at spaces between words when possible, and the
+	 * words wrapped are joined to the start of the next line unless the line
+	 * ends a paragraph.  Lines that don't exceed the number of characters
+	 * per line are not changed.
+	 * </p><p>
+	 * The wrapped lines replace the old ones in one change, which can be
+	 * undone.
+	 * </p>
+	 *
+	 * @param startLine the index of the first line to wrap
+	 *
+	 * @return the index of the line after the paragraph
+	 */
+	public int rewrapFromLine(int startLine)
+	{
+		Rewrap rewrap = new Rewrap(content::getLine, content.getLineCount(), startLine, charsPerLine, false);
+		if(rewrap.firstChanged >= 0)
+			replaceLines(rewrap, getRewrapStart(rewrap), rewrap.getText(eol));
+		return startLine + rewrap.lines.size();
+	}
+
+	/**
+	 * <p>
+	 * Wraps the line at <code>offset</code> after it was edited, only as far
+	 * as the words wrapped push the following lines past the number of
+	 * characters per line.  This takes about the same time however long the
+	 * paragraph or document is.
+	 * </p><p>
+	 * The rewrap is undone and redone together with the edit before it.
+	 * </p>
+	 *
+	 * @param offset the offset of the edit, usually the caret offset
+	 *
+	 * @return where <code>offset</code> is in the wrapped text, or -1 if
+	 *         nothing was wrapped
+	 *
+	 * @see #rewrapFromLine(int)
+	 */
+	public int rewrapEdit(int offset)
+	{
+		Rewrap rewrap = new Rewrap(content::getLine, content.getLineCount(), content.getLineAtOffset(offset), charsPerLine, true);
+		if(rewrap.firstChanged < 0)
+			return -1;
+
+		//   count the characters before the offset, which stay the same
+		int start = getRewrapStart(rewrap);
+		String before = content.getTextRange(start, offset - start);
+		int chars = 0, spaces = 0;
+		for(int i = 0; i < before.length(); i++)
+		{
+			char c = before.charAt(i);
+			if(c == ' ')
+				spaces++;
+			else if(c != '\r' && c != '\n')
+			{
+				chars++;
+				spaces = 0;
+			}
+		}
+
+		String text = rewrap.getText(eol);
+		history.groupWithLast();
+		replaceLines(rewrap, start, text);
+		int at = 0;
+		for(; chars > 0 && at < text.length(); at++)
+		{
+			char c = text.charAt(at);
+			if(c != ' ' && c != '\r' && c != '\n')
+				chars--;
+		}
+
+		//   after spaces, which may have become a line break
+		if(spaces > 0)
+		{
+			while(at < text.length() && (text.charAt(at) == '\r' || text.charAt(at) == '\n'))
+				at++;
+			for(; spaces > 0 && at < text.length() && text.charAt(at) == ' '; at++)
+				spaces--;
+		}
+		return start + at;
+	}
+
+	private int getRewrapStart(Rewrap rewrap)
+	{
+		return content.getOffsetAtLine(rewrap.startLine + rewrap.firstChanged);
+	}
+
+	/**
+	 * <p>
+	 * Replaces the lines that were read by <code>rewrap</code> from
+	 * <code>start</code> with <code>text</code>.
+	 * </p>
+	 */
+	private void replaceLines(Rewrap rewrap, int start, String text)
+	{
+		int end = content.getOffsetAtLine(rewrap.readLine - 1) + rewrap.readLength;
+		content.replaceTextRange(start, end - start, text);
+	}
+
+	/**
+	 * <p>
+	 * Wraps all lines that exceed the number of characters per line.
+	 * </p><p>
+	 * The wrapped lines replace the old ones in one change, which can be
+	 * undone.
+	 * </p>
+	 *
+	 * @see #reflow(int)
+	 */
+	public void rewrap()
+	{
+		reflow(charsPerLine).apply();
+	}
+
+	/**
+	 * <p>
+	 * Works out how the whole document would be wrapped to
+	 * <code>charsPerLine</code>, without changing it.
+	 * </p><p>
+	 * The text is split into parts at lines that end a paragraph, which
+	 * rewrapping never joins, and the parts are wrapped at the same time on
+	 * the common <code>ForkJoinPool</code>.  The wrapped parts are joined
+	 * in order, and only the text between the first and last characters
+	 * that changed is replaced.  The lines are wrapped the same as by
+	 * calling {@link #rewrapFromLine(int)} from the first line to the last.
+	 * </p><p>
+	 * The text is copied before wrapping, so this may be called on another
+	 * thread as long as the document is not changed at the same time.
+	 * </p>
+	 *
+	 * @param charsPerLine the number of characters per line to wrap to
+	 *
+	 * @return the reflow, which can show the new page count before being
+	 *         applied
+	 *
+	 * @throws IllegalArgumentException if charsPerLine is less than 1
+	 */
+	public Reflow reflow(int charsPerLine)
+	{
+		if(charsPerLine < 1)
+			throw new IllegalArgumentException("charsPerLine must be at least 1:  " + charsPerLine);
+
+		String text = content.getTextRange(0, content.getCharCount());
+
+		//   split after the delimiter of lines that end a paragraph and are
+		//   not too long, where rewrapping usually stops
+		List<ReflowPart> parts = new ArrayList<>();
+		int from = 0;
+		int end = text.indexOf(PARAGRAPH_END, REFLOW_PART_SIZE);
+		while(end >= 0 && end + 1 < text.length())
+		{
+			char c = text.charAt(end + 1);
+			int lineStart = Math.max(text.lastIndexOf('\n', end), text.lastIndexOf('\r', end)) + 1;
+			if(c != '\r' && c != '\n' || end + 1 - lineStart > charsPerLine)
+			{
+				end = text.indexOf(PARAGRAPH_END, end + 1);
+				continue;
+			}
+
+			int next = end + 2;
+			if(c == '\r' && next < text.length() && text.charAt(next) == '\n')
+				next++;
+			parts.add(new ReflowPart(text.substring(from, next), charsPerLine, eol));
+			from = next;
+			end = text.indexOf(PARAGRAPH_END, from + REFLOW_PART_SIZE);
+		}
+		parts.add(new ReflowPart(text.substring(from), charsPerLine, eol));
+
+		StringBuilder builder = new StringBuilder(text.length() + text.length() / 8);
+		try
+		{
+			//   words wrapped into the line a part was split after may make
+			//   it too long, then the part is wrapped again with the next
+			List<Future<ReflowPart>> wrapped = ForkJoinPool.commonPool().invokeAll(parts);
+			String joined = null;
+			for(int i = 0; i < wrapped.size(); i++)
+			{
+				ReflowPart part = wrapped.get(i).get();
+				if(joined != null)
+					part = new ReflowPart(joined + part.text, charsPerLine, eol).call();
+				if(part.split || i == wrapped.size() - 1)
+				{
+					builder.append(part.wrapped);
+					joined = null;
+				}
+				else
+					joined = part.text;
+			}
+		}
+		catch(InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException("reflow interrupted");
+		}
+		catch(ExecutionException exception)
+		{
+			throw new IllegalStateException(exception.getCause());
+		}
+
+		return new Reflow(text, builder.toString(), charsPerLine);
+	}
+
+	/**
+	 * <p>
+	 * Wraps one part of the text for {@link #reflow(int)}.  Lines that are
+	 * not wrapped keep their line delimiters, the same as when rewrapping
+	 * the content.
+	 * </p>
+	 */
+	private static final class ReflowPart implements Callable<ReflowPart>
+	{
+		private final String text, eol;
+		private final int charsPerLine;
+		private int lineStarts[] = new int[256], lineEnds[] = new int[256];
+		private int lineCount;
+		private String wrapped;
+		private boolean split;
+
+		private ReflowPart(String text, int charsPerLine, String eol)
+		{
+			this.text = text;
+			this.charsPerLine = charsPerLine;
+			this.eol = eol;
+		}
+
+		/**
+		 * <p>
+		 * Wraps the part, and finds whether rewrapping stopped at the end
+		 * of its last paragraph, so that it can be split from the next.
+		 * </p>
+		 */
+		@Override
+		public ReflowPart call()
+		{
+			//   find the lines, at "\r\n", "\n", or "\r" like the content
+			int start = 0;
+			for(int i = 0; i < text.length(); i++)
+			{
+				char c = text.charAt(i);
+				if(c != '\r' && c != '\n')
+					continue;
+				addLine(start, i);
+				if(c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n')
+					i++;
+				start = i + 1;
+			}
+			addLine(start, text.length());
+
+			StringBuilder wrapped = new StringBuilder(text.length() + text.length() / 8);
+			split = false;
+			for(int line = 0; line < lineCount;)
+			{
+				Rewrap rewrap = new Rewrap(index -> text.substring(lineStarts[index], lineEnds[index]), lineCount, line, charsPerLine, false);
+				int last = rewrap.readLine - 1;
+				if(rewrap.firstChanged < 0)
+					wrapped.append(text, lineStarts[line], lineEnds[last]);
+				else
+				{
+					wrapped.append(text, lineStarts[line], lineStarts[line + rewrap.firstChanged]);
+					wrapped.append(rewrap.getText(eol));
+				}
+
+				//   delimiter after the last line read
+				line = rewrap.readLine;
+				if(line < lineCount)
+					wrapped.append(text, lineEnds[last], lineStarts[line]);
+
+				//   the part ends with a delimiter, so the last line is empty
+				if(line == lineCount - 1 && rewrap.paragraphEnd)
+					split = true;
+			}
+			this.wrapped = wrapped.toString();
+			return this;
+		}
+
+		private void addLine(int start, int end)
+		{
+			if(lineCount == lineStarts.length)
+			{
+				lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+				lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+			}
+			lineStarts[lineCount] = start;
+			lineEnds[lineCount] = end;
+			lineCount++;
+		}
+	}
+
+	/**
+	 * <p>
+	 * The result of {@link BZDocument#reflow(int)}, which replaces the
+	 * text in one change that can be undone.
+	 * </p>
+	 */
+	public final class Reflow
+	{
+		private final int charsPerLine, modifyCount;
+		private final int start, length, pageCount;
+		private final String text;
+
+		private Reflow(String oldText, String newText, int charsPerLine)
+		{
+			this.charsPerLine = charsPerLine;
+			modifyCount = BZDocument.this.modifyCount;
+
+			//   only replace what changed, not between "\r\n"
+			int prefix = 0, max = Math.min(oldText.length(), newText.length());
+			while(prefix < max && oldText.charAt(prefix) == newText.charAt(prefix))
+				prefix++;
+			if(prefix > 0 && prefix < oldText.length() && oldText.charAt(prefix - 1) == '\r' && oldText.charAt(prefix) == '\n')
+				prefix--;
+			int suffix = 0;
+			max -= prefix;
+			while(suffix < max && oldText.charAt(oldText.length() - suffix - 1) == newText.charAt(newText.length() - suffix - 1))
+				suffix++;
+			if(suffix > 0 && suffix < oldText.length() - prefix && oldText.charAt(oldText.length() - suffix - 1) == '\r' && oldText.charAt(oldText.length() - suffix) == '\n')
+				suffix--;
+
+			start = prefix;
+			length = oldText.length() - prefix - suffix;
+			text = newText.substring(prefix, newText.length() - suffix);
+
+			//   page breaks move the same as for any other change
+			int startLine = content.getLineAtOffset(start);
+			BZPageIndex newPageIndex = pageIndex.copy();
+			int replaceLineCount = countLines(oldText, start, start + length);
+			int newLineCount = countLines(text, 0, text.length());
+			newPageIndex.textChanged(startLine, replaceLineCount, newLineCount);
+			pageCount = newPageIndex.getPageCount(content.getLineCount() - replaceLineCount + newLineCount);
+		}
+
+		/**
+		 * <p>
+		 * Returns the number of characters per line the text was wrapped
+		 * to.
+		 * </p>
+		 */
+		public int getCharsPerLine()
+		{
+			return charsPerLine;
+		}
+
+		/**
+		 * <p>
+		 * Returns the number of pages the document would have after the
+		 * reflow is applied.
+		 * </p>
+		 */
+		public int getPageCount()
+		{
+			return pageCount;
+		}
+
+		/**
+		 * <p>
+		 * Returns whether applying the reflow would change the text.
+		 * </p>
+		 */
+		public boolean hasChanges()
+		{
+			return length > 0 || text.length() > 0;
+		}
+
+		/**
+		 * <p>
+		 * Replaces the text with the wrapped text in one change.  This does
+		 * not change the number of characters per line of the document.
+		 * </p>
+		 *
+		 * @return false if the document was changed after the reflow was
+		 *         worked out, and the reflow was not applied
+		 */
+		public boolean apply()
+		{
+			if(modifyCount != BZDocument.this.modifyCount)
+				return false;
+			if(hasChanges())
+				content.replaceTextRange(start, length, text);
+			return true;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Counts the line delimiters in <code>text</code> from
+	 * <code>start</code> to <code>end</code>, counting "\r\n" once.
+	 * </p>
+	 */
+	private static int countLines(String text, int start, int end)
+	{
+		int count = 0;
+		for(int i = start; i < end; i++)
+		{
+			char c = text.charAt(i);
+			if(c == '\n')
+				count++;
+			else if(c == '\r')
+			{
+				count++;
+				if(i + 1 < end && text.charAt(i + 1) == '\n')
+					i++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * <p>
+	 * The lines changed by a rewrap, worked out from a source of lines
+	 * without changing it so that they can be replaced in one change.
+	 * </p><p>
+	 * Lines are read from the source only as they are needed, and lines
+	 * before the first one wrapped are not replaced.
+	 * </p>
+	 */
+	private static final class Rewrap
+	{
+		private final IntFunction<String> source;
+		private final int lineCount, charsPerLine;
+		private final List<String> lines = new ArrayList<>();
+		private final int startLine;
+		private int readLine, readLength;
+		private int firstChanged = -1;
+		private boolean paragraphEnd;
+
+		/**
+		 * @param source returns the line at an index
+		 * @param lineCount the number of lines in source
+		 * @param startLine the index of the first line to wrap
+		 * @param charsPerLine the number of characters per line
+		 * @param untilFits whether to stop at the first line that does not
+		 *                  need to be wrapped, rather than at the end of
+		 *                  the paragraph
+		 */
+		private Rewrap(IntFunction<String> source, int lineCount, int startLine, int charsPerLine, boolean untilFits)
+		{
+			this.source = source;
+			this.lineCount = lineCount;
+			this.charsPerLine = charsPerLine;
+			this.startLine = readLine = startLine;
+
+			for(int i = 0; i < lines.size() || readLine < lineCount; i++)
+			{
+				if(i == lines.size())
+					lines.add(read());
+				String line = lines.get(i);
+				int length = line.length();
+				boolean wrapped = false;
+
+				//   line too long
+				if(length > charsPerLine)
+					wrapped = wrapLine(i, line);
+
+				if(!wrapped)
+				{
+					if(untilFits)
+						break;
+					if(length > 0 && length <= charsPerLine && line.charAt(length - 1) == PARAGRAPH_END)
+					{
+						paragraphEnd = true;
+						break;
+					}
+				}
+			}
+		}
+
+		private String read()
+		{
+			String line = source.apply(readLine++);
+			readLength = line.length();
+			return line;
+		}
+
+		private boolean wrapLine(int index, String line)
+		{
+			int wordWrap, wordEnd;
+
+			//   find beginning of word being wrapped
+			if(line.charAt(charsPerLine) != ' ')
+			{
+				for(wordWrap = charsPerLine; wordWrap > charsPerLine / 2; wordWrap--)
+					if(line.charAt(wordWrap) == ' ')
+						break;
+				if(wordWrap == charsPerLine / 2)
+					return false;
+				wordWrap++;
+			}
+			else
+			{
+				for(wordWrap = charsPerLine; wordWrap < line.length(); wordWrap++)
+					if(line.charAt(wordWrap) != ' ')
+						break;
+				if(wordWrap == line.length())
+					return false;
+			}
+
+			//   find end of word before word being wrapped
+			for(wordEnd = wordWrap - 1; wordEnd > charsPerLine / 4; wordEnd--)
+				if(line.charAt(wordEnd) != ' ')
+					break;
+			if(wordEnd == charsPerLine / 4)
+				return false;
+			wordEnd++;
+
+			//   join the words wrapped to the next line of the paragraph
+			String wrapped = line.substring(wordWrap);
+			if(line.charAt(line.length() - 1) != PARAGRAPH_END)
+			if(index + 1 < lines.size())
+				wrapped = wrapped + ' ' + lines.remove(index + 1);
+			else if(readLine < lineCount)
+				wrapped = wrapped + ' ' + read();
+
+			lines.set(index, line.substring(0, wordEnd));
+			lines.add(index + 1, wrapped);
+			if(firstChanged < 0)
+				firstChanged = index;
+			return true;
+		}
+
+		/**
+		 * <p>
+		 * Returns the text of the lines from the first one wrapped.
+		 * </p>
+		 */
+		private String getText(String eol)
+		{
+			StringBuilder text = new StringBuilder(charsPerLine * (lines.size() - firstChanged + 1));
+			for(int i = firstChanged; i < lines.size(); i++)
+			{
+				if(i > firstChanged)
+					text.append(eol);
+				text.append(lines.get(i));
+			}
+			return text.toString();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Holds the text and settings read from a file.  This allows a file to
+	 * be read on another thread and then set in one step.
+	 * </p><p>
+	 * The progress and cancel methods may be called from any thread while
+	 * the file is being read.
+	 * </p>
+	 *
+	 * @see #setFileContents(FileContents)
+	 */
+	public static final class FileContents
+	{
+		private final long size;
+		private volatile long read;
+		private volatile boolean cancelled;
+
+		private char text[] = new char[0];
+		private int length;
+		private volatile int available;
+		private int shown;
+		private String eol;
+		private int linesPerPage = -1, charsPerLine = -1;
+		private int pageBreaks[] = new int[0];
+		private int pageBreakCount;
+		private int caretOffset;
+		private String viewFocus;
+		private final List<String> messages = new ArrayList<>();
+
+		/**
+		 * @param size the size of the file in bytes, used for progress
+		 */
+		public FileContents(long size)
+		{
+			this.size = size;
+			if(size > 0 && size < Integer.MAX_VALUE)
+				text = new char[(int)size];
+		}
+
+		/**
+		 * <p>
+		 * Returns how much of the file has been read.
+		 * </p>
+		 *
+		 * @return the percentage read, from 0 to 100
+		 */
+		public int getPercentRead()
+		{
+			if(size <= 0)
+				return 0;
+			return (int)Math.min(100, read * 100 / size);
+		}
+
+		/**
+		 * <p>
+		 * Stops the reading at the next block of the file.
+		 * </p>
+		 */
+		public void cancel()
+		{
+			cancelled = true;
+		}
+
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		/**
+		 * <p>
+		 * Returns how much of the text can be shown while the rest is still
+		 * being read.  Only BRF files are shown this way.
+		 * </p>
+		 *
+		 * @return the number of characters that can be shown
+		 */
+		public int getAvailable()
+		{
+			return available;
+		}
+
+		/**
+		 * @return the caret offset read from the file, within the text
+		 */
+		public int getCaretOffset()
+		{
+			return Math.min(caretOffset, length);
+		}
+
+		/**
+		 * @return "braille" or "ascii", or null if not in the file
+		 */
+		public String getViewFocus()
+		{
+			return viewFocus;
+		}
+
+		/**
+		 * @return the warnings and errors found while reading
+		 */
+		public List<String> getMessages()
+		{
+			return messages;
+		}
+
+		/**
+		 * <p>
+		 * Makes the text read so far available to the UI thread.  Until the
+		 * end, a trailing '\r' is held back in case a '\n' follows it.
+		 * </p>
+		 */
+		private void publish(boolean last)
+		{
+			if(!last && length > 0 && text[length - 1] == '\r')
+				available = length - 1;
+			else
+				available = length;
+		}
+
+		private void addRead(int count)
+		{
+			if(cancelled)
+				throw new CancellationException();
+			read += count;
+		}
+
+		private char[] ensureCapacity(int extra)
+		{
+			if(length + extra > text.length)
+			{
+				char grown[] = new char[Math.max(length + extra, text.length * 2)];
+				System.arraycopy(text, 0, grown, 0, length);
+				text = grown;
+			}
+			return text;
+		}
+
+		private void append(char c)
+		{
+			ensureCapacity(1)[length++] = c;
+		}
+
+		private void append(String string)
+		{
+			string.getChars(0, string.length(), ensureCapacity(string.length()), length);
+			length += string.length();
+		}
+
+		private void addPageBreak(int line)
+		{
+			if(pageBreakCount == pageBreaks.length)
+			{
+				int grown[] = new int[Math.max(16, pageBreakCount * 2)];
+				System.arraycopy(pageBreaks, 0, grown, 0, pageBreakCount);
+				pageBreaks = grown;
+			}
+			pageBreaks[pageBreakCount++] = line;
+		}
+
+		/**
+		 * <p>
+		 * Ends a page at a form feed before <code>line</code>.  The first page
+		 * that is not empty gives the number of lines per page.
+		 * </p>
+		 */
+		private void addFormFeed(int line)
+		{
+			int pageStart = pageBreakCount == 0 ? 0 : pageBreaks[pageBreakCount - 1];
+			if(linesPerPage < 0 && line > pageStart)
+				linesPerPage = line - pageStart;
+			addPageBreak(line);
+		}
+
+		/**
+		 * <p>
+		 * Ends the last page after <code>lastLine</code> if it is longer than
+		 * lines per page, so that it is not split when it is written.  The
+		 * page break is past the end of the text.
+		 * </p>
+		 */
+		private void endPages(int lastLine)
+		{
+			if(pageBreakCount == 0 || linesPerPage <= 0)
+				return;
+			if(lastLine + 1 - pageBreaks[pageBreakCount - 1] > linesPerPage)
+				addPageBreak(lastLine + 1);
+		}
+
+		private void markParagraphEnd(int lineStart)
+		{
+			if(length > lineStart && text[length - 1] == 0xb6)
+				text[length - 1] = PARAGRAPH_END;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Holds a copy of the text and settings to be written to a file.  The
+	 * write methods may be called from any thread.
+	 * </p>
+	 *
+	 * @see #getFileSnapshot(int, boolean)
+	 */
+	public static final class FileSnapshot
+	{
+		private final BZContent content;
+		private final String eol;
+		private final int linesPerPage, charsPerLine;
+		private final BZPageIndex pageIndex;
+		private final int caretOffset;
+		private final boolean brailleFocus;
+		private final int versionMajor, versionMinor, versionPatch;
+		private final int modifyCount;
+
+		private FileSnapshot(BZDocument document, int caretOffset, boolean brailleFocus)
+		{
+			content = document.content.getSnapshot();
+			eol = document.eol;
+			linesPerPage = document.linesPerPage;
+			pageIndex = document.pageIndex.copy();
+			charsPerLine = document.charsPerLine;
+			this.caretOffset = caretOffset;
+			this.brailleFocus = brailleFocus;
+			versionMajor = document.versionMajor;
+			versionMinor = document.versionMinor;
+			versionPatch = document.versionPatch;
+			modifyCount = document.modifyCount;
+		}
+
+		/**
+		 * @return the modify count of the text when the snapshot was taken
+		 */
+		public int getModifyCount()
+		{
+			return modifyCount;
+		}
+
+		/**
+		 * @return the number of characters in the text of the snapshot
+		 */
+		public int getCharCount()
+		{
+			return content.getCharCount();
+		}
+
+		/**
+		 * @return the checksum of the text of the snapshot
+		 *
+		 * @see BZContent#getChecksum()
+		 */
+		public int getChecksum()
+		{
+			return content.getChecksum();
+		}
+
+		/**
+		 * <p>
+		 * Writes the snapshot in BRF format to <code>Writer</code>.
+		 * </p>
+		 *
+		 * @param writer the writer stream to write the data.
+		 *
+		 * @exception IOException
+		 */
+		public void writeBRF(Writer writer) throws IOException
+		{
+			BZContent.LineCursor cursor = content.getLineCursor();
+			while(cursor.next())
+			{
+				if(cursor.getIndex() > 0)
+					writer.write(eol);
+				for(int i = pageIndex.getPageEndCount(cursor.getIndex()); i > 0; i--)
+					writer.write(0xc);
+
+				int length = cursor.getLength();
+				if(cursor.getLastChar() == PARAGRAPH_END)
+					length--;
+				cursor.write(writer, 0, length);
+			}
+
+			writer.flush();
+		}
+
+		/**
+		 * <p>
+		 * Writes the snapshot in BrailleZephyr file format to
+		 * <code>Writer</code>.
+		 * </p>
+		 *
+		 * @param writer the writer stream to write the data.
+		 *
+		 * @exception IOException
+		 */
+		public void writeBZY(Writer writer) throws IOException
+		{
+			//   write configuration lines
+			writer.write("Version " + versionMajor + ' ' + versionMinor + ' ' + versionPatch + eol);
+
+			writer.write("CharsPerLine " + charsPerLine + eol);
+			writer.write("LinesPerPage " + linesPerPage + eol);
+			int pageBreaks[] = pageIndex.getPageBreaks();
+			if(pageBreaks.length > 0)
+			{
+				writer.write("PageBreaks");
+				for(int line : pageBreaks)
+					writer.write(" " + line);
+				writer.write(eol);
+			}
+
+			writer.write("CaretOffset " + caretOffset + eol);
+			writer.write("ViewFocus ");
+			if(brailleFocus)
+				writer.write("braille" + eol);
+			else
+				writer.write("ascii" + eol);
+
+			if(content.getCharCount() > 0)
+				writer.write("ReturnAtEnd " + (content.getOffsetAtLine(content.getLineCount() - 1) == content.getCharCount()) + eol);
+			else
+				writer.write("ReturnAtEnd false" + eol);
+
+			writer.write("HeaderEnd" + eol);
+
+			//   write text
+			BZContent.LineCursor cursor = content.getLineCursor();
+			while(cursor.next())
+			{
+				if(cursor.getIndex() > 0)
+					writer.write(eol);
+
+				int length = cursor.getLength();
+				if(cursor.getLastChar() == PARAGRAPH_END)
+				{
+					cursor.write(writer, 0, length - 1);
+					writer.write(0xb6);
+				}
+				else
+					cursor.write(writer, 0, length);
+			}
+
+			writer.flush();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Notified after each change to the text.
+	 * </p>
+	 *
+	 * @see #addEditListener(EditListener)
+	 */
+	public interface EditListener
+	{
+		/**
+		 * @param modifyCount the modify count after the change
+		 * @param start the offset of the change
+		 * @param replacedLength the length of the text that was replaced
+		 * @param text the new text
+		 */
+		void textEdited(int modifyCount, int start, int replacedLength, String text);
+	}
+
+	/**
+	 * <p>
+	 * Records every change made to the content, whether made through a
+	 * view or directly to it.
+	 * </p>
+	 */
+	private final class ContentHandler implements BZContent.ChangeListener
+	{
+		private int start, replacedLength;
+		private String text, replacedText;
+
+		@Override
+		public void textChanging(int start, int replaceCharCount, int replaceLineCount, String newText, int newLineCount)
+		{
+			pageIndex.textChanged(content.getLineAtOffset(start), replaceLineCount, newLineCount);
+			this.start = start;
+			replacedLength = replaceCharCount;
+			text = newText;
+			if(recording && !restoring)
+				replacedText = content.getTextRange(start, replacedLength);
+		}
+
+		@Override
+		public void textChanged()
+		{
+			modifyCount++;
+
+			if(!recording)
+				return;
+
+			if(!restoring)
+			{
+				history.add(start, replacedText, text);
+				replacedText = null;
+			}
+
+			for(EditListener editListener : editListeners)
+				editListener.textEdited(modifyCount, start, replacedLength, text);
+		}
+
+		@Override
+		public void textSet()
+		{
+			pageIndex.clear();
+			modifyCount++;
+		}
+	}
+}
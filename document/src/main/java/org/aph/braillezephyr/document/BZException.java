@@ -13,11 +13,13 @@
  * limitations under the License.
  */
 
-package org.aph.braillezephyr;
+package org.aph.braillezephyr.document;
 
 public class BZException extends Exception
 {
-	BZException(String message)
+	private static final long serialVersionUID = 1L;
+
+	public BZException(String message)
 	{
 		super(message);
 	}
@@ -0,0 +1,321 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr.document;
+
+/**
+ * <p>
+ * This class records the lines that pages start on.
+ * </p><p>
+ * A page can be ended by a page break, like a form feed in a BRF file.
+ * Each page break ends exactly one page, which may be empty if there is
+ * more than one break on a line, and stays with its text as lines are
+ * added and removed before it.  Pages that are ended by a page break are
+ * never split.  After the last page break, pages are lines per page long,
+ * and move as lines are added and removed.
+ * </p><p>
+ * The page breaks are stored sorted in a gap buffer, so that finding the
+ * page of a line, or the line of a page, is a binary search.  The gap is
+ * kept where the text last changed, and the page breaks after it are
+ * stored relative to a shift, so a change only moves the page breaks
+ * between it and the last change.
+ * </p>
+ */
+public final class BZPageIndex
+{
+	private int linesPerPage;
+
+	//   breaks before the gap are lines, breaks after it are lines - shift
+	private int breaks[] = new int[16];
+	private int gapStart, gapEnd = breaks.length;
+	private int shift;
+
+	/**
+	 * <p>
+	 * Creates a new <code>BZPageIndex</code> with no page breaks.
+	 * </p>
+	 *
+	 * @param linesPerPage the number of lines per page, 0 for no pages
+	 */
+	public BZPageIndex(int linesPerPage)
+	{
+		this.linesPerPage = linesPerPage;
+	}
+
+	/**
+	 * <p>
+	 * Returns a copy that is not changed by changes to this one.
+	 * </p>
+	 *
+	 * @return the copy
+	 */
+	public BZPageIndex copy()
+	{
+		BZPageIndex copy = new BZPageIndex(linesPerPage);
+		int lines[] = getPageBreaks();
+		copy.setPageBreaks(lines, lines.length);
+		return copy;
+	}
+
+	public int getLinesPerPage()
+	{
+		return linesPerPage;
+	}
+
+	public void setLinesPerPage(int linesPerPage)
+	{
+		this.linesPerPage = linesPerPage;
+	}
+
+	/**
+	 * <p>
+	 * Sets the page breaks.
+	 * </p>
+	 *
+	 * @param lines the sorted indexes of the lines that start pages after a
+	 *              page break, once for each page break
+	 * @param count the number of lines to use
+	 */
+	public void setPageBreaks(int lines[], int count)
+	{
+		breaks = new int[Math.max(16, count)];
+		gapStart = 0;
+		for(int i = 0; i < count; i++)
+		if(lines[i] >= 0 && (gapStart == 0 || lines[i] >= breaks[gapStart - 1]))
+			breaks[gapStart++] = lines[i];
+		gapEnd = breaks.length;
+		shift = 0;
+	}
+
+	public void clear()
+	{
+		gapStart = 0;
+		gapEnd = breaks.length;
+		shift = 0;
+	}
+
+	/**
+	 * <p>
+	 * Returns the page breaks.
+	 * </p>
+	 *
+	 * @return the sorted indexes of the lines that start pages after a page
+	 *         break, once for each page break
+	 */
+	public int[] getPageBreaks()
+	{
+		int lines[] = new int[getBreakCount()];
+		for(int i = 0; i < lines.length; i++)
+			lines[i] = getBreak(i);
+		return lines;
+	}
+
+	/**
+	 * <p>
+	 * Moves the page breaks after a change to the text.  Page breaks after
+	 * the replaced lines move with them.  Page breaks on the replaced lines
+	 * are kept if the new text still has that line, otherwise they are
+	 * removed.
+	 * </p>
+	 *
+	 * @param startLine the index of the line the change starts on
+	 * @param replaceLineCount the number of line delimiters replaced
+	 * @param newLineCount the number of line delimiters in the new text
+	 */
+	public void textChanged(int startLine, int replaceLineCount, int newLineCount)
+	{
+		if(replaceLineCount == 0 && newLineCount == 0)
+			return;
+
+		moveGap(upperBound(startLine));
+		while(gapEnd < breaks.length)
+		{
+			int line = breaks[gapEnd] + shift;
+			if(line > startLine + replaceLineCount)
+				break;
+			if(line - startLine <= newLineCount)
+				breaks[gapStart++] = line;
+			gapEnd++;
+		}
+		shift += newLineCount - replaceLineCount;
+	}
+
+	/**
+	 * <p>
+	 * Returns whether a page starts on a line.  When there are no lines per
+	 * page, only page breaks start pages.
+	 * </p>
+	 *
+	 * @param line the index of the line
+	 *
+	 * @return whether a page starts on the line
+	 */
+	public boolean isPageStart(int line)
+	{
+		if(line == 0 && linesPerPage > 0)
+			return true;
+		return getPageEndCount(line) > 0;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of pages that end just before a line, which is the
+	 * number of form feeds before it in a BRF file.  This is more than one
+	 * when there are empty pages before the line.
+	 * </p>
+	 *
+	 * @param line the index of the line
+	 *
+	 * @return the number of pages that end before the line
+	 */
+	public int getPageEndCount(int line)
+	{
+		int section = upperBound(line);
+		int count = section - upperBound(line - 1);
+		if(section < getBreakCount() || linesPerPage <= 0)
+			return count;
+
+		//   pages after the last page break are lines per page long
+		int start = section == 0 ? 0 : getBreak(section - 1);
+		if(line > start && (line - start) % linesPerPage == 0)
+			count++;
+		return count;
+	}
+
+	/**
+	 * <p>
+	 * Returns the page a line is on.
+	 * </p>
+	 *
+	 * @param line the index of the line
+	 *
+	 * @return the index of the page
+	 */
+	public int getPageAtLine(int line)
+	{
+		int section = upperBound(line);
+		if(section < getBreakCount() || linesPerPage <= 0)
+			return section;
+		int start = section == 0 ? 0 : getBreak(section - 1);
+		return section + (line - start) / linesPerPage;
+	}
+
+	/**
+	 * <p>
+	 * Returns how far a line is from the start of its page.
+	 * </p>
+	 *
+	 * @param line the index of the line
+	 *
+	 * @return the index of the line within its page
+	 */
+	public int getLineInPage(int line)
+	{
+		int section = upperBound(line);
+		int start = section == 0 ? 0 : getBreak(section - 1);
+		if(section < getBreakCount() || linesPerPage <= 0)
+			return line - start;
+		return (line - start) % linesPerPage;
+	}
+
+	/**
+	 * <p>
+	 * Returns the line a page starts on.
+	 * </p>
+	 *
+	 * @param page the index of the page
+	 *
+	 * @return the index of the line, which may be past the end of the text
+	 *         if there are not that many pages
+	 */
+	public int getLineAtPage(int page)
+	{
+		//   each page break ends one page
+		int breakCount = getBreakCount();
+		int section = Math.min(page, breakCount);
+		int start = section == 0 ? 0 : getBreak(section - 1);
+		if(linesPerPage <= 0)
+			return start;
+		return start + (page - section) * linesPerPage;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of pages.
+	 * </p>
+	 *
+	 * @param lineCount the number of lines in the text
+	 *
+	 * @return the number of pages, at least 1
+	 */
+	public int getPageCount(int lineCount)
+	{
+		int lastLine = Math.max(0, lineCount - 1);
+		return getPageAtLine(lastLine) + 1;
+	}
+
+	private int getBreakCount()
+	{
+		return gapStart + breaks.length - gapEnd;
+	}
+
+	private int getBreak(int index)
+	{
+		if(index < gapStart)
+			return breaks[index];
+		return breaks[index + gapEnd - gapStart] + shift;
+	}
+
+	/**
+	 * <p>
+	 * Moves the gap to before the <code>index</code>th page break.
+	 * </p>
+	 */
+	private void moveGap(int index)
+	{
+		while(gapStart > index)
+		{
+			gapStart--;
+			gapEnd--;
+			breaks[gapEnd] = breaks[gapStart] - shift;
+		}
+		while(gapStart < index)
+		{
+			breaks[gapStart] = breaks[gapEnd] + shift;
+			gapStart++;
+			gapEnd++;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of page breaks at or before <code>line</code>,
+	 * which is also the index of the section the line is in.
+	 * </p>
+	 */
+	private int upperBound(int line)
+	{
+		int low = 0, high = getBreakCount();
+		while(low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if(getBreak(middle) <= line)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+}
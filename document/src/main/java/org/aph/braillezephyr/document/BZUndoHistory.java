@@ -0,0 +1,407 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr.document;
+
+/**
+ * <p>
+ * The changes to a document that can be undone and redone, kept so that a
+ * long session uses no more than a set amount of memory.
+ * </p><p>
+ * Each change is a record of its offset and the lengths of the text it
+ * replaced and the text it inserted, kept in int arrays used as a ring.
+ * Both texts are kept one after the other in one char buffer.  Undoing or
+ * redoing a change does not move any records, only the index between the
+ * changes done and the changes undone.  When the records and their text
+ * use more than the memory limit, the oldest changes are forgotten.
+ * </p><p>
+ * Single characters typed one after another, like braille chords, are
+ * joined into one change up to and including a space, so that typing is
+ * undone a word at a time.
+ * </p><p>
+ * The changes recorded between {@link #startGroup()} and
+ * {@link #endGroup()} are grouped, and are undone and redone together.
+ * </p>
+ */
+final class BZUndoHistory
+{
+	//   bytes used by each record, not counting its text
+	private static final int RECORD_SIZE = 4 * 4;
+
+	private int starts[] = new int[64];
+	private int oldLengths[] = new int[64];
+	private int newLengths[] = new int[64];
+	private int textStarts[] = new int[64];
+	private boolean grouped[] = new boolean[64];
+	private int first, count, index, saveIndex;
+
+	private char text[] = new char[1024];
+	private int textFirst, textEnd;
+
+	private int memoryLimit;
+	private boolean joinTyping, grouping, groupStarted, groupForgotten;
+
+	/**
+	 * <p>
+	 * Creates a new empty <code>BZUndoHistory</code>.
+	 * </p>
+	 *
+	 * @param memoryLimit the most bytes the changes may use
+	 */
+	BZUndoHistory(int memoryLimit)
+	{
+		this.memoryLimit = memoryLimit;
+	}
+
+	int getMemoryLimit()
+	{
+		return memoryLimit;
+	}
+
+	/**
+	 * <p>
+	 * Sets the most bytes the changes may use, forgetting the oldest
+	 * changes if they now use more.
+	 * </p>
+	 */
+	void setMemoryLimit(int memoryLimit)
+	{
+		this.memoryLimit = memoryLimit;
+		trim();
+	}
+
+	/**
+	 * <p>
+	 * Returns about how many bytes the changes use.
+	 * </p>
+	 */
+	long getMemoryUsed()
+	{
+		return (long)count * RECORD_SIZE + (long)(textEnd - textFirst) * 2;
+	}
+
+	void clear()
+	{
+		first = count = index = saveIndex = 0;
+		textFirst = textEnd = 0;
+		joinTyping = groupStarted = false;
+	}
+
+	/**
+	 * <p>
+	 * Returns whether changes were done or undone since the last call to
+	 * {@link #setSaved()}.
+	 * </p>
+	 */
+	boolean isModified()
+	{
+		return saveIndex != index;
+	}
+
+	void setSaved()
+	{
+		saveIndex = index;
+		joinTyping = false;
+	}
+
+	/**
+	 * <p>
+	 * Marks that the text was changed without a change being recorded, so
+	 * that it is modified even if undone to where it was saved.
+	 * </p>
+	 */
+	void setUnsaved()
+	{
+		if(saveIndex == index)
+			saveIndex = -1;
+	}
+
+	/**
+	 * <p>
+	 * Starts grouping the changes recorded, until {@link #endGroup()}.
+	 * </p>
+	 */
+	void startGroup()
+	{
+		grouping = true;
+		groupStarted = groupForgotten = joinTyping = false;
+	}
+
+	void endGroup()
+	{
+		grouping = groupStarted = groupForgotten = joinTyping = false;
+	}
+
+	/**
+	 * <p>
+	 * Groups the next change recorded with the last one, so that they are
+	 * undone and redone together, like an edit and the rewrap it caused.
+	 * </p>
+	 */
+	void groupWithLast()
+	{
+		if(grouping)
+			return;
+		groupStarted = index > 0;
+		joinTyping = false;
+	}
+
+	/**
+	 * <p>
+	 * Returns whether the change of <code>record</code> was grouped with
+	 * the change before it, so undoing it should also undo that one.
+	 * </p>
+	 */
+	boolean isGrouped(int record)
+	{
+		return grouped[record];
+	}
+
+	/**
+	 * <p>
+	 * Returns whether the next change to redo was grouped with the one
+	 * just redone.
+	 * </p>
+	 */
+	boolean isRedoGrouped()
+	{
+		return index < count && grouped[slot(index)];
+	}
+
+	boolean canUndo()
+	{
+		return index > 0;
+	}
+
+	boolean canRedo()
+	{
+		return index < count;
+	}
+
+	/**
+	 * <p>
+	 * Moves back over the last change done.
+	 * </p>
+	 *
+	 * @return the record of the change, to pass to the get methods
+	 */
+	int undo()
+	{
+		joinTyping = false;
+		index--;
+		return slot(index);
+	}
+
+	/**
+	 * <p>
+	 * Moves forward over the last change undone.
+	 * </p>
+	 *
+	 * @return the record of the change, to pass to the get methods
+	 */
+	int redo()
+	{
+		joinTyping = false;
+		int record = slot(index);
+		index++;
+		return record;
+	}
+
+	int getStart(int record)
+	{
+		return starts[record];
+	}
+
+	int getOldLength(int record)
+	{
+		return oldLengths[record];
+	}
+
+	int getNewLength(int record)
+	{
+		return newLengths[record];
+	}
+
+	String getOldText(int record)
+	{
+		return new String(text, textStarts[record], oldLengths[record]);
+	}
+
+	String getNewText(int record)
+	{
+		return new String(text, textStarts[record] + oldLengths[record], newLengths[record]);
+	}
+
+	/**
+	 * <p>
+	 * Records a change, forgetting any changes that were undone.
+	 * </p>
+	 *
+	 * @param start the offset of the change
+	 * @param oldText the text that was replaced
+	 * @param newText the text that replaced it
+	 */
+	void add(int start, String oldText, String newText)
+	{
+		//   the rest of a group that was forgotten cannot be undone alone
+		if(groupForgotten)
+		{
+			setUnsaved();
+			return;
+		}
+
+		//   forget the changes undone
+		if(index < count)
+		{
+			if(saveIndex > index)
+				saveIndex = -1;
+			count = index;
+			textEnd = count > 0 ? getTextEnd(slot(count - 1)) : textFirst;
+			joinTyping = false;
+		}
+
+		boolean typed = oldText.length() == 0 && newText.length() == 1 && newText.charAt(0) != '\r' && newText.charAt(0) != '\n';
+		if(typed && joinTyping && index != saveIndex)
+		{
+			int last = slot(count - 1);
+			if(start == starts[last] + newLengths[last] && text[textEnd - 1] != ' ')
+			{
+				ensureText(1);
+				text[textEnd++] = newText.charAt(0);
+				newLengths[last]++;
+				trim();
+				return;
+			}
+		}
+		joinTyping = typed;
+
+		if(count == starts.length)
+			growRecords();
+		ensureText(oldText.length() + newText.length());
+
+		int record = slot(count);
+		starts[record] = start;
+		oldLengths[record] = oldText.length();
+		newLengths[record] = newText.length();
+		textStarts[record] = textEnd;
+		grouped[record] = groupStarted;
+		groupStarted = grouping;
+		oldText.getChars(0, oldText.length(), text, textEnd);
+		textEnd += oldText.length();
+		newText.getChars(0, newText.length(), text, textEnd);
+		textEnd += newText.length();
+		count++;
+		index++;
+		trim();
+	}
+
+	private int slot(int i)
+	{
+		return (first + i) & (starts.length - 1);
+	}
+
+	private int getTextEnd(int record)
+	{
+		return textStarts[record] + oldLengths[record] + newLengths[record];
+	}
+
+	/**
+	 * <p>
+	 * Forgets the oldest changes until the memory used is under the limit.
+	 * Groups of changes are forgotten whole.  Changes that were undone are
+	 * forgotten all at once, as they can only be redone in order.
+	 * </p>
+	 */
+	private void trim()
+	{
+		while(count > 0 && getMemoryUsed() > memoryLimit)
+		{
+			do
+			{
+				if(index == 0)
+				{
+					count = 0;
+					break;
+				}
+
+				first = slot(1);
+				count--;
+				index--;
+				if(saveIndex >= 0)
+					saveIndex--;
+			}
+			while(count > 0 && grouped[first]);
+			textFirst = count > 0 ? textStarts[first] : textEnd;
+		}
+
+		if(count == 0)
+		{
+			if(groupStarted)
+				groupForgotten = true;
+			first = 0;
+			textFirst = textEnd = 0;
+			joinTyping = false;
+		}
+	}
+
+	private void growRecords()
+	{
+		int capacity = starts.length * 2;
+		starts = copyRecords(starts, capacity);
+		oldLengths = copyRecords(oldLengths, capacity);
+		newLengths = copyRecords(newLengths, capacity);
+		textStarts = copyRecords(textStarts, capacity);
+		boolean copy[] = new boolean[capacity];
+		int end = Math.min(count, grouped.length - first);
+		System.arraycopy(grouped, first, copy, 0, end);
+		System.arraycopy(grouped, 0, copy, end, count - end);
+		grouped = copy;
+		first = 0;
+	}
+
+	//   copies the ring in order to the start of a new array
+	private int[] copyRecords(int records[], int capacity)
+	{
+		int copy[] = new int[capacity];
+		int end = Math.min(count, records.length - first);
+		System.arraycopy(records, first, copy, 0, end);
+		System.arraycopy(records, 0, copy, end, count - end);
+		return copy;
+	}
+
+	/**
+	 * <p>
+	 * Makes room for <code>length</code> more characters of text, moving the
+	 * text of the changes kept to the start of the buffer, and growing it
+	 * if that would leave it more than half full.
+	 * </p>
+	 */
+	private void ensureText(int length)
+	{
+		if(textEnd + length <= text.length)
+			return;
+
+		int used = textEnd - textFirst;
+		char buffer[] = text;
+		if(used + length > text.length / 2)
+			buffer = new char[Math.max(text.length * 2, used + length)];
+		System.arraycopy(text, textFirst, buffer, 0, used);
+		for(int i = 0; i < count; i++)
+			textStarts[slot(i)] -= textFirst;
+		text = buffer;
+		textEnd = used;
+		textFirst = 0;
+	}
+}
@@ -0,0 +1,228 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr.document;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BZContentTest
+{
+	/**
+	 * <p>
+	 * Returns the offset of the start of each line of <code>text</code>,
+	 * where "\r\n", "\n" and a lone "\r" each end a line.
+	 * </p>
+	 */
+	private static List<Integer> getLineStarts(String text)
+	{
+		List<Integer> lineStarts = new ArrayList<>();
+		lineStarts.add(0);
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if(c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n')
+				i++;
+			if(c == '\n' || c == '\r')
+				lineStarts.add(i + 1);
+		}
+		return lineStarts;
+	}
+
+	private static boolean isInsideDelimiter(String text, int offset)
+	{
+		return offset > 0 && offset < text.length() && text.charAt(offset - 1) == '\r' && text.charAt(offset) == '\n';
+	}
+
+	private static String getText(BZContent content)
+	{
+		return content.getTextRange(0, content.getCharCount());
+	}
+
+	/**
+	 * <p>
+	 * Checks every line and offset of <code>content</code> against the
+	 * lines of <code>text</code>.
+	 * </p>
+	 */
+	private static void assertContent(String text, BZContent content)
+	{
+		assertEquals(text, getText(content));
+		List<Integer> lineStarts = getLineStarts(text);
+		assertEquals(lineStarts.size(), content.getLineCount());
+
+		for(int line = 0; line < lineStarts.size(); line++)
+		{
+			int start = lineStarts.get(line);
+			assertEquals(start, content.getOffsetAtLine(line));
+
+			//   the line ends before the delimiter that starts the next one
+			int end = text.length();
+			if(line + 1 < lineStarts.size())
+			{
+				end = lineStarts.get(line + 1) - 1;
+				if(text.charAt(end) == '\n' && end > start && text.charAt(end - 1) == '\r')
+					end--;
+			}
+			assertEquals(text.substring(start, end), content.getLine(line));
+		}
+
+		int line = 0;
+		for(int offset = 0; offset <= text.length(); offset++)
+		{
+			while(line + 1 < lineStarts.size() && lineStarts.get(line + 1) <= offset)
+				line++;
+			assertEquals(line, content.getLineAtOffset(offset));
+		}
+	}
+
+	@Test
+	void replaceAcrossLineDelimiters()
+	{
+		BZContent content = new BZContent();
+		content.setText("ab\r\ncd");
+
+		//   may not start or end between '\r' and '\n'
+		assertThrows(IllegalArgumentException.class, () -> content.replaceTextRange(3, 0, "x"));
+		assertThrows(IllegalArgumentException.class, () -> content.replaceTextRange(3, 1, ""));
+		assertThrows(IllegalArgumentException.class, () -> content.replaceTextRange(1, 2, ""));
+
+		//   replacing the whole delimiter, or around it, is fine
+		content.replaceTextRange(2, 2, "\n");
+		assertContent("ab\ncd", content);
+		content.replaceTextRange(1, 3, "x\r\ny");
+		assertContent("ax\r\nyd", content);
+
+		//   a '\r' inserted before a '\n' joins it
+		content.setText("a\nb");
+		content.replaceTextRange(1, 0, "\r");
+		assertContent("a\r\nb", content);
+
+		//   as does a '\n' inserted after a '\r'
+		content.setText("a\rb");
+		content.replaceTextRange(2, 0, "\n");
+		assertContent("a\r\nb", content);
+
+		//   and removing what was between them
+		content.setText("a\rxy\nb");
+		content.replaceTextRange(2, 2, "");
+		assertContent("a\r\nb", content);
+		content.replaceTextRange(1, 2, "\r\r\n");
+		assertContent("a\r\r\nb", content);
+	}
+
+	@Test
+	void linesAfterRandomEdits()
+	{
+		Random random = new Random(1);
+		String pieces[] = {"a", "bc", "\n", "\r", "\r\n", "de\r", "\nf", "g\r\nh", ""};
+
+		BZContent content = new BZContent();
+		String text = "first line\r\nsecond\nthird\rlast";
+		content.setText(text);
+		for(int i = 0; i < 2000; i++)
+		{
+			int start = random.nextInt(text.length() + 1);
+			int length = random.nextInt(Math.min(8, text.length() - start) + 1);
+			String newText = pieces[random.nextInt(pieces.length)];
+
+			if(isInsideDelimiter(text, start) || (length > 0 && isInsideDelimiter(text, start + length)))
+			{
+				final int badStart = start, badLength = length;
+				assertThrows(IllegalArgumentException.class, () -> content.replaceTextRange(badStart, badLength, newText));
+				continue;
+			}
+
+			content.replaceTextRange(start, length, newText);
+			text = text.substring(0, start) + newText + text.substring(start + length);
+			if(i % 50 == 0)
+				assertContent(text, content);
+		}
+		assertContent(text, content);
+	}
+
+	@Test
+	void extendTextAppends()
+	{
+		char chars[] = "one\r\ntwo\r\nthree\nfour".toCharArray();
+		BZContent content = new BZContent();
+		content.setText(chars, 3);
+		assertContent("one", content);
+
+		//   edits come before the text appended after them
+		content.replaceTextRange(0, 0, "X");
+		content.extendText(5);
+		assertContent("Xone\r\n", content);
+		content.extendText(10);
+		assertContent("Xone\r\ntwo\r\n", content);
+		content.replaceTextRange(4, 2, "");
+		content.extendText(chars.length);
+		assertContent("Xonetwo\r\nthree\nfour", content);
+
+		//   may not split a "\r\n"
+		content.setText(chars, 4);
+		assertThrows(IllegalArgumentException.class, () -> content.extendText(5));
+		assertThrows(IllegalArgumentException.class, () -> content.extendText(chars.length + 1));
+		content.setText(chars, 3);
+		content.extendText(5);
+		assertContent("one\r\n", content);
+	}
+
+	@Test
+	void snapshotIsNotChanged() throws Exception
+	{
+		char chars[] = "abc\ndef\nghi".toCharArray();
+		BZContent content = new BZContent();
+		content.setText(chars, 8);
+		content.replaceTextRange(1, 1, "XY\r");
+		String text = getText(content);
+
+		BZContent snapshot = content.getSnapshot();
+		int checksum = snapshot.getChecksum();
+
+		//   edits, appends and a new text after the snapshot
+		Random random = new Random(2);
+		for(int i = 0; i < 200; i++)
+		{
+			int start = random.nextInt(content.getCharCount() + 1);
+			if(start > 0 && start < content.getCharCount() && content.getCharAt(start - 1) == '\r' && content.getCharAt(start) == '\n')
+				continue;
+			content.replaceTextRange(start, 0, i % 3 == 0 ? "\n" : "z");
+		}
+		content.extendText(chars.length);
+		assertContent(text, snapshot);
+		assertEquals(checksum, snapshot.getChecksum());
+
+		content.setText("new");
+		assertContent(text, snapshot);
+
+		StringWriter writer = new StringWriter();
+		BZContent.LineCursor cursor = snapshot.getLineCursor();
+		while(cursor.next())
+		{
+			if(cursor.getIndex() > 0)
+				writer.write('|');
+			cursor.write(writer, 0, cursor.getLength());
+		}
+		assertEquals("aXY|c|def|", writer.toString());
+	}
+}
@@ -0,0 +1,144 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr.document;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BZDocumentTest
+{
+	/**
+	 * <p>
+	 * Returns BRF text with a form feed before each of <code>pageBreaks</code>
+	 * and <code>lineCount</code> lines.
+	 * </p>
+	 */
+	private static String makeBRF(int lineCount, int... pageBreaks)
+	{
+		StringBuilder text = new StringBuilder();
+		int next = 0;
+		for(int line = 0; line < lineCount; line++)
+		{
+			if(line > 0)
+				text.append("\r\n");
+			while(next < pageBreaks.length && pageBreaks[next] == line)
+			{
+				text.append('\f');
+				next++;
+			}
+			text.append("LINE ").append(line);
+		}
+		return text.toString();
+	}
+
+	private static String writeBRF(BZDocument document) throws Exception
+	{
+		StringWriter writer = new StringWriter();
+		document.writeBRF(writer);
+		return writer.toString();
+	}
+
+	private static void assertRoundTrip(String brf) throws Exception
+	{
+		BZDocument document = new BZDocument();
+		document.readBRF(ByteBuffer.wrap(brf.getBytes(StandardCharsets.US_ASCII)));
+		assertArrayEquals(brf.getBytes(StandardCharsets.US_ASCII), writeBRF(document).getBytes(StandardCharsets.US_ASCII));
+
+		document = new BZDocument();
+		document.readBRF(new StringReader(brf));
+		assertEquals(brf, writeBRF(document));
+	}
+
+	@Test
+	void roundTripRegularPages() throws Exception
+	{
+		assertRoundTrip(makeBRF(100, 25, 50, 75));
+		assertRoundTrip(makeBRF(100, 25, 50, 75) + "\r\n\f");
+	}
+
+	@Test
+	void roundTripIrregularPages() throws Exception
+	{
+		assertRoundTrip(makeBRF(140, 25, 50, 60, 85, 115));
+		assertRoundTrip(makeBRF(40, 10, 35));
+	}
+
+	@Test
+	void roundTripEmptyPages() throws Exception
+	{
+		assertRoundTrip(makeBRF(80, 25, 25, 50, 50, 50, 75));
+		assertRoundTrip(makeBRF(30, 0, 0, 10, 20) + "\r\n\f\f");
+	}
+
+	@Test
+	void pagesOfIrregularPages() throws Exception
+	{
+		BZDocument document = new BZDocument();
+		document.readBRF(ByteBuffer.wrap(makeBRF(100, 25, 25, 40, 90).getBytes(StandardCharsets.US_ASCII)));
+		assertEquals(25, document.getLinesPerPage());
+		assertEquals(5, document.getPageCount());
+		assertEquals(0, document.getPageAtLine(24));
+		assertEquals(2, document.getPageAtLine(25));
+		assertEquals(3, document.getPageAtLine(89));
+		assertEquals(4, document.getPageAtLine(99));
+		assertEquals(40, document.getLineAtPage(3));
+		assertEquals(49, document.getLineInPage(89));
+	}
+
+	@Test
+	void rewrapCanBeUndone()
+	{
+		BZDocument document = new BZDocument();
+		String text = "ONE TWO THREE FOUR FIVE SIX SEVEN";
+		document.setText(text);
+		document.setCharsPerLine(10);
+		document.rewrap();
+		BZContent content = document.getContent();
+		assertEquals(4, content.getLineCount());
+
+		document.undo();
+		assertEquals(text, content.getTextRange(0, content.getCharCount()));
+		document.redo();
+		assertEquals(4, content.getLineCount());
+	}
+
+	@Test
+	void pageBreaksMoveWithText()
+	{
+		BZPageIndex pageIndex = new BZPageIndex(25);
+		pageIndex.setPageBreaks(new int[]{10, 20, 20, 30}, 4);
+
+		//   add 2 lines on line 15, then remove 5 lines from line 0
+		pageIndex.textChanged(15, 0, 2);
+		assertArrayEquals(new int[]{10, 22, 22, 32}, pageIndex.getPageBreaks());
+		pageIndex.textChanged(0, 5, 0);
+		assertArrayEquals(new int[]{5, 17, 17, 27}, pageIndex.getPageBreaks());
+
+		//   remove lines 16 to 20, the page breaks on 17 are gone
+		pageIndex.textChanged(16, 4, 0);
+		assertArrayEquals(new int[]{5, 23}, pageIndex.getPageBreaks());
+		assertEquals(1, pageIndex.getPageEndCount(23));
+		assertEquals(1, pageIndex.getPageEndCount(48));
+		assertEquals(0, pageIndex.getPageEndCount(24));
+	}
+}
@@ -0,0 +1,238 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr.document;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BZUndoHistoryTest
+{
+	//   bytes used by a change that inserts two characters
+	private static final int CHANGE_SIZE = 4 * 4 + 2 * 2;
+
+	private static String getText(BZDocument document)
+	{
+		BZContent content = document.getContent();
+		return content.getTextRange(0, content.getCharCount());
+	}
+
+	/**
+	 * <p>
+	 * Inserts two characters at a random offset, which is never joined with
+	 * the change before it, and returns the new text.
+	 * </p>
+	 */
+	private static String insert(BZDocument document, Random random)
+	{
+		BZContent content = document.getContent();
+		int offset = random.nextInt(content.getCharCount() + 1);
+		content.replaceTextRange(offset, 0, "" + (char)('a' + random.nextInt(26)) + (char)('A' + random.nextInt(26)));
+		return getText(document);
+	}
+
+	private static void type(BZDocument document, String text)
+	{
+		BZContent content = document.getContent();
+		for(int i = 0; i < text.length(); i++)
+			content.replaceTextRange(content.getCharCount(), 0, text.substring(i, i + 1));
+	}
+
+	/**
+	 * <p>
+	 * Undoes the changes kept, checking each against the last of
+	 * <code>states</code>, then redoes them all.
+	 * </p>
+	 *
+	 * @return the number of changes that could be undone
+	 */
+	private static int assertUndoRedo(BZDocument document, List<String> states)
+	{
+		int last = states.size() - 1;
+		int undone = 0;
+		while(document.undo() >= 0)
+		{
+			undone++;
+			assertEquals(states.get(last - undone), getText(document));
+		}
+		for(int i = undone - 1; i >= 0; i--)
+		{
+			assertTrue(document.redo() >= 0);
+			assertEquals(states.get(last - i), getText(document));
+		}
+		assertEquals(-1, document.redo());
+		return undone;
+	}
+
+	@Test
+	void undoRedoAcrossRingWrap()
+	{
+		Random random = new Random(1);
+		BZDocument document = new BZDocument();
+		document.setText("start");
+		List<String> states = new ArrayList<>();
+		states.add(getText(document));
+
+		//   fewer changes than records, so the oldest are forgotten as the ring wraps
+		document.setUndoMemoryLimit(CHANGE_SIZE * 40);
+		for(int i = 0; i < 300; i++)
+			states.add(insert(document, random));
+		assertEquals(40, assertUndoRedo(document, states));
+
+		//   grow the records while the first one is not at the start of the ring
+		document.setUndoMemoryLimit(CHANGE_SIZE * 100);
+		for(int i = 0; i < 90; i++)
+			states.add(insert(document, random));
+		assertEquals(100, assertUndoRedo(document, states));
+	}
+
+	@Test
+	void undoRedoAcrossTrim()
+	{
+		Random random = new Random(2);
+		BZDocument document = new BZDocument();
+		document.setText("start");
+		List<String> states = new ArrayList<>();
+		states.add(getText(document));
+		for(int i = 0; i < 50; i++)
+			states.add(insert(document, random));
+
+		//   undo some, then forget the oldest of the ones still done
+		for(int i = 0; i < 10; i++)
+			document.undo();
+		assertEquals(states.get(40), getText(document));
+		document.setUndoMemoryLimit(CHANGE_SIZE * 30);
+
+		//   the ones undone can be redone, and 20 of the rest undone
+		for(int i = 0; i < 10; i++)
+			assertTrue(document.redo() >= 0);
+		assertEquals(states.get(50), getText(document));
+		assertEquals(-1, document.redo());
+		assertEquals(30, assertUndoRedo(document, states));
+
+		//   a new change after undoing forgets the ones undone
+		for(int i = 0; i < 5; i++)
+			document.undo();
+		states.subList(46, states.size()).clear();
+		states.add(insert(document, random));
+		assertEquals(26, assertUndoRedo(document, states));
+	}
+
+	@Test
+	void groupIsForgottenWhole()
+	{
+		Random random = new Random(3);
+		BZDocument document = new BZDocument();
+		document.setText("start");
+		document.setUndoMemoryLimit(CHANGE_SIZE * 10);
+		for(int i = 0; i < 3; i++)
+			insert(document, random);
+
+		List<String> groupStates = new ArrayList<>();
+		document.beginBatch();
+		for(int i = 0; i < 5; i++)
+			groupStates.add(insert(document, random));
+		document.commitBatch();
+
+		//   the sixth change after the group needs the room of its first change
+		List<String> states = new ArrayList<>();
+		states.add(groupStates.get(4));
+		for(int i = 0; i < 6; i++)
+			states.add(insert(document, random));
+		assertEquals(6, assertUndoRedo(document, states));
+
+		//   undoing all that is kept never leaves part of the group
+		while(document.undo() >= 0)
+			assertFalse(groupStates.subList(0, 4).contains(getText(document)));
+		assertEquals(groupStates.get(4), getText(document));
+	}
+
+	@Test
+	void groupForgottenWhileRecorded()
+	{
+		Random random = new Random(4);
+		BZDocument document = new BZDocument();
+		document.setText("start");
+		document.setUndoMemoryLimit(CHANGE_SIZE * 10);
+		String before = insert(document, random);
+
+		document.beginBatch();
+		for(int i = 0; i < 15; i++)
+			insert(document, random);
+		document.commitBatch();
+		String after = getText(document);
+
+		//   none of the group can be undone, not even its last changes
+		assertEquals(-1, document.undo());
+		assertEquals(after, getText(document));
+		assertTrue(document.getModified());
+		assertFalse(before.equals(getText(document)));
+
+		//   changes after the group are kept again
+		String next = insert(document, random);
+		assertTrue(document.undo() >= 0);
+		assertEquals(after, getText(document));
+		assertEquals(-1, document.undo());
+		assertTrue(document.redo() >= 0);
+		assertEquals(next, getText(document));
+	}
+
+	@Test
+	void typingJoinsUpToSpace()
+	{
+		BZDocument document = new BZDocument();
+		document.setText("");
+		type(document, "ab cd  ef");
+
+		//   each word is undone with the space after it
+		document.undo();
+		assertEquals("ab cd  ", getText(document));
+		document.undo();
+		assertEquals("ab cd ", getText(document));
+		document.undo();
+		assertEquals("ab ", getText(document));
+		document.undo();
+		assertEquals("", getText(document));
+		assertEquals(-1, document.undo());
+
+		//   and redone the same way
+		document.redo();
+		assertEquals("ab ", getText(document));
+		document.redo();
+		document.redo();
+		document.redo();
+		assertEquals("ab cd  ef", getText(document));
+
+		//   typing somewhere else, or a new line, starts a new change
+		type(document, "g");
+		document.getContent().replaceTextRange(0, 0, "h");
+		type(document, "\ni");
+		document.undo();
+		assertEquals("hab cd  efg\n", getText(document));
+		document.undo();
+		assertEquals("hab cd  efg", getText(document));
+		document.undo();
+		assertEquals("ab cd  efg", getText(document));
+		document.undo();
+		assertEquals("ab cd  ef", getText(document));
+	}
+}
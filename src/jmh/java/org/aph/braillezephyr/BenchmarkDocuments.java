@@ -0,0 +1,138 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr;
+
+import org.aph.braillezephyr.document.BZDocument;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * Generates the documents the benchmarks are run against.
+ * </p><p>
+ * The text is words of ascii braille, wrapped to 40 characters per line
+ * and 25 lines per page, with a paragraph ending every 5 lines.  The same
+ * number of pages always gives the same text.
+ * </p>
+ */
+final class BenchmarkDocuments
+{
+	static final int LINES_PER_PAGE = 25, CHARS_PER_LINE = 40;
+
+	private static final String WORDS[] =
+	{
+		"AND", "!", "?E", "2", "$", "TH", "/ING", "W\\L", "BRL", "ZEPHYR",
+		"CON9T", "DOCU;T", "PAGE", "L9E", "1", "#ABC", "MA9", "STY/D",
+	};
+
+	private BenchmarkDocuments(){}
+
+	/**
+	 * <p>
+	 * Returns the text of a document, with lines separated by "\r\n" and
+	 * the paragraph endings marked with PARAGRAPH_END.
+	 * </p>
+	 *
+	 * @param pages the number of pages
+	 * @param charsPerLine the number of characters to wrap the lines at,
+	 *                     more than the document uses to have lines to
+	 *                     rewrap
+	 *
+	 * @return the text
+	 */
+	static String text(int pages, int charsPerLine)
+	{
+		int lines = pages * LINES_PER_PAGE;
+		StringBuilder text = new StringBuilder(lines * (charsPerLine + 2));
+		int word = 0;
+		for(int i = 0; i < lines; i++)
+		{
+			if(i > 0)
+				text.append("\r\n");
+			int lineStart = text.length();
+			while(true)
+			{
+				String next = WORDS[word % WORDS.length];
+				int length = text.length() - lineStart;
+				if(length + (length > 0 ? 1 : 0) + next.length() > charsPerLine)
+					break;
+				if(length > 0)
+					text.append(' ');
+				text.append(next);
+				word++;
+			}
+			if(i % 5 == 4)
+				text.append(BZDocument.PARAGRAPH_END);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * <p>
+	 * Returns a document in BRF format.
+	 * </p>
+	 *
+	 * @param pages the number of pages
+	 *
+	 * @return the bytes of the file
+	 *
+	 * @exception IOException
+	 */
+	static byte[] brf(int pages) throws IOException
+	{
+		StringWriter writer = new StringWriter();
+		document(pages).writeBRF(writer);
+		return writer.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * <p>
+	 * Returns a document in BrailleZephyr file format.
+	 * </p>
+	 *
+	 * @param pages the number of pages
+	 *
+	 * @return the text of the file
+	 *
+	 * @exception IOException
+	 */
+	static String bzy(int pages) throws IOException
+	{
+		StringWriter writer = new StringWriter();
+		document(pages).writeBZY(writer);
+		return writer.toString();
+	}
+
+	/**
+	 * <p>
+	 * Returns a document wrapped to the default characters per line.
+	 * </p>
+	 *
+	 * @param pages the number of pages
+	 *
+	 * @return the document
+	 */
+	static BZDocument document(int pages)
+	{
+		BZDocument document = new BZDocument();
+		document.setLinesPerPage(LINES_PER_PAGE);
+		document.setCharsPerLine(CHARS_PER_LINE);
+		document.setText(text(pages, CHARS_PER_LINE));
+		return document;
+	}
+}
@@ -0,0 +1,56 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.aph.braillezephyr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures translating the chords of braille entry into ascii braille.
+ * This does not depend on the document, so there are no page counts.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChordBenchmark
+{
+	private final char chords[] = new char[63];
+
+	public ChordBenchmark()
+	{
+		for(int i = 0; i < chords.length; i++)
+			chords[i] = (char)(0x2800 + i + 1);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(63)
+	public void asciiBraille(Blackhole blackhole)
+	{
+		for(char chord : chords)
+			blackhole.consume(BZStyledText.getAsciiBraille(chord));
+	}
+}
@@ -0,0 +1,143 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.aph.braillezephyr;
+
+import org.aph.braillezephyr.document.BZContent;
+import org.aph.braillezephyr.document.BZDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures rewrapping, reflowing the whole document, and undoing and
+ * redoing edits.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EditBenchmark
+{
+	private static final int EDITS = 1000;
+
+	/**
+	 * <p>
+	 * A document wrapped wider than the characters per line, so there is
+	 * work to do.  The text is not copied, and the original buffer is never
+	 * changed by the rewrap, so it can be set again for each iteration.
+	 * </p><p>
+	 * A setup for each invocation would take longer than the rewrap being
+	 * measured, so the rewrap is undone in the benchmark instead.
+	 * </p>
+	 */
+	@State(Scope.Benchmark)
+	public static class RewrapState
+	{
+		@Param({"10", "1000", "100000"})
+		private int pages;
+
+		private char unwrapped[];
+		private BZDocument document;
+		private int line;
+
+		@Setup
+		public void setup()
+		{
+			unwrapped = BenchmarkDocuments.text(pages, BenchmarkDocuments.CHARS_PER_LINE * 3 / 2).toCharArray();
+			document = new BZDocument();
+			document.setCharsPerLine(BenchmarkDocuments.CHARS_PER_LINE);
+
+			//   a paragraph in the middle of the document
+			line = pages * BenchmarkDocuments.LINES_PER_PAGE / 10 * 5;
+		}
+
+		@Setup(Level.Iteration)
+		public void setText()
+		{
+			document.getContent().setText(unwrapped, unwrapped.length);
+			document.clearChanges();
+		}
+	}
+
+	/**
+	 * <p>
+	 * A document with typing spread over it to undo and redo.
+	 * </p>
+	 */
+	@State(Scope.Benchmark)
+	public static class UndoState
+	{
+		@Param({"10", "1000", "100000"})
+		private int pages;
+
+		private BZDocument document;
+
+		@Setup
+		public void setup()
+		{
+			document = BenchmarkDocuments.document(pages);
+			BZContent content = document.getContent();
+			int step = content.getCharCount() / EDITS;
+			for(int i = 0; i < EDITS; i++)
+			{
+				//   keep away from the line delimiters
+				int offset = i * step;
+				while(content.getCharAt(offset) == '\r' || content.getCharAt(offset) == '\n')
+					offset++;
+
+				if(i % 4 == 3)
+					content.replaceTextRange(offset, 1, "");
+				else
+					content.replaceTextRange(offset, 0, "A");
+			}
+		}
+	}
+
+	@Benchmark
+	public BZDocument rewrapFromCaretAndUndo(RewrapState state)
+	{
+		state.document.rewrapFromLine(state.line);
+		state.document.undo();
+		return state.document;
+	}
+
+	@Benchmark
+	public BZDocument.Reflow reflow(RewrapState state)
+	{
+		return state.document.reflow(BenchmarkDocuments.CHARS_PER_LINE);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(2 * EDITS)
+	public BZDocument undoRedo(UndoState state)
+	{
+		for(int i = 0; i < EDITS; i++)
+			state.document.undo();
+		for(int i = 0; i < EDITS; i++)
+			state.document.redo();
+		return state.document;
+	}
+}
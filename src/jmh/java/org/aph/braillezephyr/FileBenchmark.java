@@ -0,0 +1,91 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.aph.braillezephyr;
+
+import org.aph.braillezephyr.document.BZDocument;
+import org.aph.braillezephyr.document.BZException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures reading and writing BRF and BrailleZephyr files.
+ * </p><p>
+ * Files are read from memory and written to a writer that discards them,
+ * so only the parsing and formatting is measured.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FileBenchmark
+{
+	@Param({"10", "1000", "100000"})
+	private int pages;
+
+	private byte brf[];
+	private String bzy;
+	private BZDocument document;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		brf = BenchmarkDocuments.brf(pages);
+		bzy = BenchmarkDocuments.bzy(pages);
+		document = BenchmarkDocuments.document(pages);
+	}
+
+	@Benchmark
+	public BZDocument readBRF()
+	{
+		BZDocument read = new BZDocument();
+		read.readBRF(ByteBuffer.wrap(brf));
+		return read;
+	}
+
+	@Benchmark
+	public BZDocument readBZY() throws IOException, BZException
+	{
+		BZDocument read = new BZDocument();
+		read.readBZY(new StringReader(bzy));
+		return read;
+	}
+
+	@Benchmark
+	public void writeBRF() throws IOException
+	{
+		document.writeBRF(Writer.nullWriter());
+	}
+
+	@Benchmark
+	public void writeBZY() throws IOException
+	{
+		document.writeBZY(Writer.nullWriter());
+	}
+}
@@ -1,5 +1,6 @@
 module org.aph.braillezephyr {
 	exports org.aph.braillezephyr;
 	requires java.desktop;
+	requires org.aph.braillezephyr.document;
 	requires org.eclipse.swt.gtk.linux.x86_64;
 }
@@ -0,0 +1,380 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Plays the bell sounds through one output line shared by all of them.
+ * </p><p>
+ * Nothing is read or opened until a sound is first played or preloaded.
+ * Sounds are then decoded once and kept as PCM, and each time one is
+ * played it is mixed into what the line is already playing.  A sound that
+ * is still playing is not started again.  The line is closed when nothing
+ * has been played for a while, and opened again when needed.
+ * </p>
+ */
+final class BZAudio
+{
+	//   the format of the bells, all sounds are converted to it
+	private static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+
+	//   10 ms of sound is mixed at a time, and the line holds 40 ms
+	private static final int CHUNK_FRAMES = 441, LINE_CHUNKS = 4;
+	private static final int IDLE_SECONDS = 10;
+
+	private final BZLog log;
+	private final BlockingQueue<Sound> queue = new LinkedBlockingQueue<>();
+	private final Map<String, byte[]> cache = new HashMap<>();
+	private Thread playerThread;
+
+	/**
+	 * <p>
+	 * Creates a new <code>BZAudio</code>.  The playback thread is not
+	 * started until a sound is played.
+	 * </p>
+	 *
+	 * @param log where errors decoding or playing sounds are logged
+	 */
+	BZAudio(BZLog log)
+	{
+		this.log = log;
+	}
+
+	/**
+	 * <p>
+	 * Returns a sound for the resource <code>resource</code>, without
+	 * reading it.
+	 * </p>
+	 *
+	 * @return the sound, or null if there is no such resource
+	 */
+	Sound getResourceSound(String resource)
+	{
+		if(BZAudio.class.getResource(resource) == null)
+			return null;
+		return new Sound(resource, true, 0);
+	}
+
+	/**
+	 * <p>
+	 * Returns a sound for the file <code>fileName</code>.  Only the header
+	 * of the file is read, to check that it is a sound file.
+	 * </p>
+	 *
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 * @throws UnsupportedAudioFileException
+	 */
+	Sound getFileSound(String fileName) throws FileNotFoundException,
+	                                           IOException,
+	                                           UnsupportedAudioFileException
+	{
+		File file = new File(fileName);
+		if(!file.isFile())
+			throw new FileNotFoundException(fileName);
+		AudioSystem.getAudioFileFormat(file);
+		return new Sound(fileName, false, file.lastModified());
+	}
+
+	/**
+	 * <p>
+	 * Starts playing <code>sound</code>, unless it is still playing.  This
+	 * does not wait for the sound to be read or played.
+	 * </p>
+	 */
+	void play(Sound sound)
+	{
+		if(sound == null || sound.failed)
+			return;
+
+		synchronized(queue)
+		{
+			if(playerThread == null)
+			{
+				playerThread = new Thread(new PlayerHandler(), "BrailleZephyr audio");
+				playerThread.setDaemon(true);
+				playerThread.start();
+			}
+		}
+		queue.offer(sound);
+	}
+
+	/**
+	 * <p>
+	 * Decodes <code>sound</code> now on the calling thread, so that it does
+	 * not need to be decoded when it is first played.
+	 * </p>
+	 */
+	void preload(Sound sound)
+	{
+		if(sound != null && !sound.failed)
+			getPCM(sound);
+	}
+
+	/**
+	 * <p>
+	 * Returns the PCM of <code>sound</code>, decoding it if it is not in the
+	 * cache.  Sounds are decoded one at a time, so a sound being preloaded is
+	 * not decoded again for playing.
+	 * </p>
+	 *
+	 * @return the PCM, or null if the sound could not be read
+	 */
+	private byte[] getPCM(Sound sound)
+	{
+		synchronized(cache)
+		{
+			byte pcm[] = cache.get(sound.getKey());
+			if(pcm != null)
+				return pcm;
+			try
+			{
+				pcm = decode(sound);
+				cache.put(sound.getKey(), pcm);
+				return pcm;
+			}
+			catch(IOException exception)
+			{
+				log.error("Unable to read sound file " + sound.name + ":  " + exception.getMessage());
+			}
+			catch(UnsupportedAudioFileException | IllegalArgumentException exception)
+			{
+				log.error("Sound file unsupported:  " + sound.name);
+			}
+			sound.failed = true;
+			return null;
+		}
+	}
+
+	private static byte[] decode(Sound sound) throws IOException, UnsupportedAudioFileException
+	{
+		InputStream inputStream;
+		if(sound.resource)
+		{
+			inputStream = BZAudio.class.getResourceAsStream(sound.name);
+			if(inputStream == null)
+				throw new FileNotFoundException(sound.name);
+		}
+		else
+			inputStream = new FileInputStream(sound.name);
+
+		try(AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new BufferedInputStream(inputStream)))
+		{
+			AudioInputStream pcmInputStream = audioInputStream;
+			if(!audioInputStream.getFormat().matches(FORMAT))
+				pcmInputStream = AudioSystem.getAudioInputStream(FORMAT, audioInputStream);
+			byte pcm[] = pcmInputStream.readAllBytes();
+
+			//   whole frames only
+			int length = pcm.length - pcm.length % 4;
+			if(length == pcm.length)
+				return pcm;
+			byte frames[] = new byte[length];
+			System.arraycopy(pcm, 0, frames, 0, length);
+			return frames;
+		}
+	}
+
+	/**
+	 * <p>
+	 * A sound that can be played, read from a resource or file the first
+	 * time it is played.
+	 * </p>
+	 */
+	static final class Sound
+	{
+		private final String name;
+		private final boolean resource;
+		private final long modified;
+
+		//   set once it could not be read, so it is not tried again
+		private volatile boolean failed;
+
+		private Sound(String name, boolean resource, long modified)
+		{
+			this.name = name;
+			this.resource = resource;
+			this.modified = modified;
+		}
+
+		String getName()
+		{
+			return name;
+		}
+
+		//   sounds with the same key have the same PCM
+		private String getKey()
+		{
+			return resource ? "resource:" + name : name + ":" + modified;
+		}
+	}
+
+	private static final class Voice
+	{
+		private final Sound sound;
+		private final byte pcm[];
+		private int position;
+
+		private Voice(Sound sound, byte pcm[])
+		{
+			this.sound = sound;
+			this.pcm = pcm;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Mixes the sounds played and writes them to the line, which is only
+	 * used by this thread.
+	 * </p>
+	 */
+	private final class PlayerHandler implements Runnable
+	{
+		private final List<Voice> voices = new ArrayList<>();
+		private final int mix[] = new int[CHUNK_FRAMES * 2];
+		private final byte chunk[] = new byte[CHUNK_FRAMES * 4];
+
+		private SourceDataLine line;
+		private boolean lineFailed;
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(true)
+				{
+					Sound sound;
+					if(voices.isEmpty())
+					{
+						sound = queue.poll(IDLE_SECONDS, TimeUnit.SECONDS);
+						if(sound == null)
+						{
+							closeLine();
+							sound = queue.take();
+						}
+					}
+					else
+						sound = queue.poll();
+					for(; sound != null; sound = queue.poll())
+						addVoice(sound);
+
+					if(voices.isEmpty())
+						continue;
+					if(!openLine())
+					{
+						voices.clear();
+						continue;
+					}
+					mixChunk();
+					line.write(chunk, 0, chunk.length);
+				}
+			}
+			catch(InterruptedException ignored){}
+
+			closeLine();
+		}
+
+		private void addVoice(Sound sound)
+		{
+			for(Voice voice : voices)
+				if(voice.sound == sound)
+					return;
+
+			byte pcm[] = getPCM(sound);
+			if(pcm == null)
+				return;
+			voices.add(new Voice(sound, pcm));
+		}
+
+		//   adds the next chunk of each voice as 16 bit little-endian samples
+		private void mixChunk()
+		{
+			for(int i = 0; i < mix.length; i++)
+				mix[i] = 0;
+
+			for(int v = voices.size() - 1; v >= 0; v--)
+			{
+				Voice voice = voices.get(v);
+				int length = Math.min(chunk.length, voice.pcm.length - voice.position);
+				for(int i = 0; i < length; i += 2)
+					mix[i / 2] += (voice.pcm[voice.position + i + 1] << 8) | (voice.pcm[voice.position + i] & 0xff);
+				voice.position += length;
+				if(voice.position >= voice.pcm.length)
+					voices.remove(v);
+			}
+
+			for(int i = 0; i < mix.length; i++)
+			{
+				int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+				chunk[i * 2] = (byte)sample;
+				chunk[i * 2 + 1] = (byte)(sample >> 8);
+			}
+		}
+
+		private boolean openLine()
+		{
+			if(line != null)
+				return true;
+			try
+			{
+				line = AudioSystem.getSourceDataLine(FORMAT);
+				line.open(FORMAT, chunk.length * LINE_CHUNKS);
+				line.start();
+				lineFailed = false;
+				return true;
+			}
+			catch(LineUnavailableException | IllegalArgumentException exception)
+			{
+				//   only logged once until the line opens again
+				if(!lineFailed)
+					log.error("Line unavailable for bells:  " + exception.getMessage());
+				lineFailed = true;
+				line = null;
+				return false;
+			}
+		}
+
+		private void closeLine()
+		{
+			if(line == null)
+				return;
+			line.drain();
+			line.close();
+			line = null;
+		}
+	}
+}
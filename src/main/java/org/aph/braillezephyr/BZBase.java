@@ -30,10 +30,7 @@ public class BZBase
 			string = "ERROR:  " + message;
 		else
 			string = "ERROR:  " + message + ":  " + info;
-		System.err.println(string);
-		System.err.flush();
-		bzStyledText.getLogWriter().println(string);
-		bzStyledText.getLogWriter().flush();
+		bzStyledText.getLog().log(string);
 
 		if(showMessage)
 		{
@@ -74,8 +71,6 @@ public class BZBase
 
 	protected void logMessage(String string)
 	{
-		System.out.println(string);
-		bzStyledText.getLogWriter().println(string);
-		bzStyledText.getLogWriter().flush();
+		bzStyledText.getLog().info(string);
 	}
 }
@@ -0,0 +1,278 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr;
+
+import org.aph.braillezephyr.document.BZDocument;
+import org.aph.braillezephyr.document.BZException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Converts files between BRF and BrailleZephyr formats from the command
+ * line, without a display.
+ * </p><p>
+ * <code>--convert in out --to bzy|brf [--chars n] [--lines n] [--rewrap]
+ * [--threads n]</code>
+ * </p><p>
+ * <code>in</code> is a file, or a directory whose .brf and .bzy files are
+ * converted.  <code>out</code> is the directory the converted files are
+ * written to, with the extension changed.  Files are converted in
+ * parallel, and the time taken or the error for each file is printed,
+ * followed by a summary.
+ * </p>
+ */
+public final class BZConverter
+{
+	private final PrintStream out, err;
+
+	private File inFile, outDirectory;
+	private boolean toBZY;
+	private int charsPerLine = -1, linesPerPage = -1;
+	private boolean rewrap;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * <p>
+	 * Creates a new <code>BZConverter</code> object.
+	 * </p>
+	 *
+	 * @param out where the progress and summary are printed
+	 * @param err where errors are printed
+	 */
+	public BZConverter(PrintStream out, PrintStream err)
+	{
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * <p>
+	 * Converts the files given by the command line arguments.
+	 * </p>
+	 *
+	 * @param args the arguments, starting with --convert
+	 *
+	 * @return the exit status, 0 if all files were converted, 1 if any
+	 *         failed, and 2 if the arguments were invalid
+	 */
+	public int convert(String args[])
+	{
+		try
+		{
+			parseArgs(args);
+		}
+		catch(BZException exception)
+		{
+			err.println("ERROR:  " + exception.getMessage());
+			err.println("usage:  --convert in out --to bzy|brf [--chars n] [--lines n] [--rewrap] [--threads n]");
+			return 2;
+		}
+
+		List<File> files = new ArrayList<>();
+		if(inFile.isDirectory())
+		{
+			File list[] = inFile.listFiles();
+			if(list != null)
+			for(File file : list)
+			if(file.isFile() && (file.getName().endsWith(".brf") || file.getName().endsWith(".bzy")))
+				files.add(file);
+		}
+		else
+			files.add(inFile);
+
+		if(!outDirectory.isDirectory() && !outDirectory.mkdirs())
+		{
+			err.println("ERROR:  Unable to create directory:  " + outDirectory);
+			return 2;
+		}
+
+		long startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+		List<Future<String>> results = new ArrayList<>(files.size());
+		for(File file : files)
+			results.add(executor.submit(new ConvertFile(file)));
+		executor.shutdown();
+
+		//   results are printed in the order of the files
+		int failed = 0;
+		for(int i = 0; i < files.size(); i++)
+		{
+			try
+			{
+				out.println(results.get(i).get());
+			}
+			catch(ExecutionException exception)
+			{
+				Throwable cause = exception.getCause();
+				err.println("ERROR:  " + files.get(i) + ":  " + (cause.getMessage() != null ? cause.getMessage() : cause.toString()));
+				failed++;
+			}
+			catch(InterruptedException exception)
+			{
+				executor.shutdownNow();
+				err.println("ERROR:  interrupted");
+				return 1;
+			}
+		}
+
+		long time = (System.nanoTime() - startTime) / 1000000;
+		out.println("Converted " + (files.size() - failed) + " of " + files.size() + " files in " + time + " ms, " + failed + " failed");
+		return failed == 0 ? 0 : 1;
+	}
+
+	private void parseArgs(String args[]) throws BZException
+	{
+		List<String> names = new ArrayList<>();
+		String to = null;
+
+		try
+		{
+			for(int i = 1; i < args.length; i++)
+			switch(args[i])
+			{
+			case "--to":  to = args[++i];  break;
+			case "--chars":  charsPerLine = Integer.parseInt(args[++i]);  break;
+			case "--lines":  linesPerPage = Integer.parseInt(args[++i]);  break;
+			case "--threads":  threads = Integer.parseInt(args[++i]);  break;
+			case "--rewrap":  rewrap = true;  break;
+
+			default:
+
+				if(args[i].startsWith("--"))
+					throw new BZException("Unknown option:  " + args[i]);
+				names.add(args[i]);
+				break;
+			}
+		}
+		catch(ArrayIndexOutOfBoundsException exception)
+		{
+			throw new BZException("Missing value for " + args[args.length - 1]);
+		}
+		catch(NumberFormatException exception)
+		{
+			throw new BZException("Invalid number:  " + exception.getMessage());
+		}
+
+		if(names.size() != 2)
+			throw new BZException("Expected an input and output");
+		if(!"bzy".equals(to) && !"brf".equals(to))
+			throw new BZException("--to must be bzy or brf");
+		if(threads < 1)
+			throw new BZException("--threads must be at least 1");
+
+		inFile = new File(names.get(0));
+		if(!inFile.exists())
+			throw new BZException("Input does not exist:  " + inFile);
+		outDirectory = new File(names.get(1));
+		toBZY = "bzy".equals(to);
+	}
+
+	private final class ConvertFile implements Callable<String>
+	{
+		private final File file;
+
+		private ConvertFile(File file)
+		{
+			this.file = file;
+		}
+
+		@Override
+		public String call() throws IOException, BZException
+		{
+			long startTime = System.nanoTime();
+
+			//   read
+			BZDocument document = new BZDocument();
+			if(file.getName().endsWith(".bzy"))
+			{
+				FileReader fileReader = new FileReader(file);
+				try
+				{
+					document.readBZY(fileReader);
+				}
+				finally
+				{
+					fileReader.close();
+				}
+			}
+			else
+				document.readBRF(BZFile.readBytes(file.getPath()));
+
+			if(linesPerPage >= 0)
+				document.setLinesPerPage(linesPerPage);
+			if(charsPerLine >= 0)
+				document.setCharsPerLine(charsPerLine);
+			//   the document is only written, so the change need not be kept for undo
+			if(rewrap)
+			{
+				document.rewrap();
+				document.clearChanges();
+			}
+
+			//   write
+			String name = file.getName();
+			int dot = name.lastIndexOf('.');
+			if(dot > 0)
+				name = name.substring(0, dot);
+			File outFile = new File(outDirectory, name + (toBZY ? ".bzy" : ".brf"));
+
+			FileOutputStream outputStream = new FileOutputStream(outFile);
+			boolean written = false;
+			try
+			{
+				Writer writer;
+				if(toBZY)
+				{
+					writer = new BufferedWriter(new OutputStreamWriter(outputStream), 65536);
+					document.writeBZY(writer);
+				}
+				else
+				{
+					writer = new BZFile.AsciiWriter(outputStream);
+					document.writeBRF(writer);
+				}
+				writer.close();
+				written = true;
+			}
+			finally
+			{
+				if(!written)
+				{
+					outputStream.close();
+					outFile.delete();
+				}
+			}
+
+			long time = (System.nanoTime() - startTime) / 1000000;
+			return String.format("%6d ms  %s -> %s", time, file.getPath(), outFile.getPath());
+		}
+	}
+}
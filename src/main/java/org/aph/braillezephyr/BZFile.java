@@ -15,17 +15,49 @@
 
 package org.aph.braillezephyr;
 
+import org.aph.braillezephyr.document.BZDocument;
+import org.aph.braillezephyr.document.BZDocument.FileContents;
+import org.aph.braillezephyr.document.BZDocument.FileSnapshot;
+import org.aph.braillezephyr.document.BZException;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.events.SelectionListener;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.MessageBox;
+import org.eclipse.swt.widgets.ProgressBar;
+import org.eclipse.swt.widgets.Shell;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -37,6 +69,26 @@ import java.nio.charset.Charset;
 public final class BZFile extends BZBase
 {
 	private String fileName;
+	private final BZJournal journal;
+	private OpenFileThread openFileThread;
+	private volatile boolean saveFailed;
+
+	//   counts each time the text is replaced, so a save that finishes
+	//   afterwards is not taken as a save of the new text
+	private int textCount;
+
+	//   how often text is added to the views while a file is read
+	private static final int STREAM_INTERVAL = 100;
+
+	//   saves are written one at a time in the order they were made
+	private final ThreadPoolExecutor saveExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			return new Thread(runnable, "BrailleZephyr save file");
+		}
+	});
 
 	/**
 	 * <p>
@@ -48,6 +100,8 @@ public final class BZFile extends BZBase
 	public BZFile(BZStyledText bzStyledText)
 	{
 		super(bzStyledText);
+		saveExecutor.allowCoreThreadTimeOut(true);
+		journal = new BZJournal(bzStyledText);
 	}
 
 	String getFileName()
@@ -55,9 +109,15 @@ public final class BZFile extends BZBase
 		return fileName;
 	}
 
-	boolean newFile()
+	/**
+	 * <p>
+	 * Asks to save the text if it has been modified.
+	 * </p>
+	 *
+	 * @return false if the user cancelled or the save failed
+	 */
+	private boolean checkModified()
 	{
-		//   check if text has been modified
 		if(bzStyledText.getModified())
 		{
 			MessageBox messageBox = new MessageBox(parentShell, SWT.ICON_QUESTION | SWT.YES | SWT.NO | SWT.CANCEL);
@@ -66,60 +126,177 @@ public final class BZFile extends BZBase
 			if(result == SWT.CANCEL)
 				return false;
 			else if(result == SWT.YES)
-			if(!saveFile())
-				return false;
+			{
+				//   the text is about to be replaced, so it must be written first
+				if(!saveFile() || !finishSaving())
+					return false;
+			}
 		}
+		return true;
+	}
 
+	boolean newFile()
+	{
+		//   check if text has been modified
+		if(!checkModified())
+			return false;
+
+		cancelOpenFile();
 		bzStyledText.setText("");
+		textCount++;
 		fileName = null;
 		parentShell.setText("BrailleZephyr");
+		journal.fileClosed();
 		return true;
 	}
 
+	/**
+	 * <p>
+	 * Starts opening <code>fileName</code> on another thread.
+	 * </p><p>
+	 * The current text can still be edited while the file is read.  If the
+	 * file takes a while, a progress dialog with a Cancel button is shown.
+	 * Once the file is read it replaces the current text, after asking to
+	 * save any changes.  Opening another file cancels the current one.
+	 * </p><p>
+	 * A BRF file that is not read almost at once is shown as soon as its
+	 * first pages are read, and the rest is added as it is read.  The text
+	 * can be viewed but not changed or saved until the whole file is read.
+	 * Cancelling keeps the text read so far as a new document.
+	 * </p>
+	 *
+	 * @param fileName the name of the file to open
+	 * @param openListener notified when the file is opened or fails to open,
+	 *                     may be null
+	 *
+	 * @return whether opening was started
+	 */
+	boolean openFile(String fileName, OpenListener openListener)
+	{
+		return openFile(fileName, openListener, false);
+	}
+
 	boolean openFile(String fileName)
 	{
-		try
+		return openFile(fileName, null);
+	}
+
+	/**
+	 * <p>
+	 * Opens <code>fileName</code>, which is already being read into
+	 * <code>contents</code> on another thread, like a file given when
+	 * starting.
+	 * </p>
+	 *
+	 * @param reading the result of {@link #readContents(String, FileContents)}
+	 *
+	 * @return whether opening was started
+	 */
+	boolean openFile(String fileName, FileContents contents, Future<?> reading)
+	{
+		return openFile(fileName, null, false, contents, reading);
+	}
+
+	private boolean openFile(String fileName, OpenListener openListener, boolean confirmed)
+	{
+		return openFile(fileName, openListener, confirmed, new FileContents(new File(fileName).length()), null);
+	}
+
+	private boolean openFile(String fileName, OpenListener openListener, boolean confirmed, FileContents contents, Future<?> reading)
+	{
+		cancelOpenFile();
+		openFileThread = new OpenFileThread(fileName, openListener, confirmed, contents, reading);
+		Thread thread = new Thread(openFileThread, "BrailleZephyr open file");
+		thread.setDaemon(true);
+		thread.start();
+		parentShell.getDisplay().timerExec(250, new ShowProgress(openFileThread));
+		parentShell.getDisplay().timerExec(STREAM_INTERVAL, new StreamFileContents(openFileThread));
+		return true;
+	}
+
+	private void cancelOpenFile()
+	{
+		if(openFileThread == null)
+			return;
+		openFileThread.cancel();
+		openFileThread = null;
+	}
+
+	/**
+	 * <p>
+	 * Reads a BZY or BRF file into <code>contents</code>.  This may be called
+	 * from any thread.
+	 * </p>
+	 */
+	static void readContents(String fileName, FileContents contents) throws IOException, BZException
+	{
+		if(fileName.endsWith("bzy"))
 		{
 			FileReader fileReader = new FileReader(fileName);
-			if(fileName.endsWith("bzy"))
-				bzStyledText.readBZY(fileReader);
-			else
-				bzStyledText.readBRF(fileReader);
-			fileReader.close();
-			parentShell.setText(new File(fileName).getName() + " - BrailleZephyr");
-			this.fileName = fileName;
-			return true;
-		}
-		catch(FileNotFoundException exception)
-		{
-			logError("Unable to open file", exception);
+			try
+			{
+				BZDocument.parseBZY(fileReader, contents);
+			}
+			finally
+			{
+				fileReader.close();
+			}
 		}
-		catch(IOException exception)
+		else
+			BZDocument.parseBRF(readBytes(fileName), contents);
+	}
+
+	/**
+	 * <p>
+	 * Returns the bytes of the file without copying them onto the heap.
+	 * </p><p>
+	 * A mapped file cannot be replaced on Windows until the mapping is
+	 * garbage collected, which would make saving over it fail, so there the
+	 * file is read into a buffer instead.
+	 * </p>
+	 */
+	static ByteBuffer readBytes(String fileName) throws IOException, BZException
+	{
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		try
 		{
-			logError("Unable to read file", exception);
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				throw new BZException("File too large");
+
+			if(!System.getProperty("os.name").toLowerCase().startsWith("windows"))
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			ByteBuffer bytes = ByteBuffer.allocate((int)size);
+			while(bytes.hasRemaining())
+			if(channel.read(bytes) < 0)
+				break;
+			bytes.flip();
+			return bytes;
 		}
-		catch(BZException exception)
+		finally
 		{
-			logError("Unable to read file", fileName + ":  " + exception.getMessage());
+			channel.close();
 		}
-
-		return false;
 	}
 
-	boolean openFile()
+	/**
+	 * <p>
+	 * Asks for a file and starts opening it.
+	 * </p>
+	 *
+	 * @param openListener notified when the file is opened or fails to open,
+	 *                     may be null
+	 *
+	 * @return whether opening was started
+	 *
+	 * @see #openFile(String, OpenListener)
+	 */
+	boolean openFile(OpenListener openListener)
 	{
 		//   check if text has been modified
-		if(bzStyledText.getModified())
-		{
-			MessageBox messageBox = new MessageBox(parentShell, SWT.ICON_QUESTION | SWT.YES | SWT.NO | SWT.CANCEL);
-			messageBox.setMessage("Would you like to save your changes?");
-			int result = messageBox.open();
-			if(result == SWT.CANCEL)
-				return false;
-			else if(result == SWT.YES)
-				if(!saveFile())
-					return false;
-		}
+		if(!checkModified())
+			return false;
 
 		FileDialog fileDialog = new FileDialog(parentShell, SWT.OPEN);
 		fileDialog.setFilterExtensions(new String[]{ "*.brf", "*.bzy", "*.brf;*.bzy", "*.*" });
@@ -129,15 +306,38 @@ public final class BZFile extends BZBase
 		if(fileName == null)
 			return false;
 
-		return openFile(fileName);
+		return openFile(fileName, openListener, true);
 	}
 
 	boolean saveFile()
+	{
+		return saveFile(false, null);
+	}
+
+	/**
+	 * <p>
+	 * Starts writing the text on the save thread.  The file name and title
+	 * are only changed to a new file once it has been written.
+	 * </p>
+	 *
+	 * @param saveAs whether to ask for a new file name
+	 * @param saveListener notified if the file is written, or null
+	 *
+	 * @return false if the user cancelled or the file cannot be saved now
+	 */
+	private boolean saveFile(boolean saveAs, SaveListener saveListener)
 	{
 		String fileName;
 
+		//   only part of the text is there
+		if(openFileThread != null && openFileThread.streaming)
+		{
+			logError("Unable to save while a file is being opened");
+			return false;
+		}
+
 		//   check if file name is set
-		if(this.fileName == null)
+		if(saveAs || this.fileName == null)
 		{
 			FileDialog fileDialog = new FileDialog(parentShell, SWT.SAVE);
 			fileDialog.setFileName(this.fileName);
@@ -169,53 +369,631 @@ public final class BZFile extends BZBase
 		else
 			fileName = this.fileName;
 
+		//   text is written on the save thread, so editing can continue
+		saveExecutor.execute(new SaveFileThread(fileName, bzStyledText.getFileSnapshot(), saveListener));
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Waits for any saves that have been started to finish.
+	 * </p>
+	 *
+	 * @return whether the last save succeeded
+	 */
+	boolean finishSaving()
+	{
 		try
 		{
-			OutputStreamWriter writer;
+			saveExecutor.submit(new Runnable()
+			{
+				@Override
+				public void run(){}
+			}).get();
+		}
+		catch(InterruptedException | ExecutionException exception)
+		{
+			logError("Unable to finish saving", exception);
+			return false;
+		}
+
+		return !saveFailed;
+	}
+
+	/**
+	 * <p>
+	 * Removes the journal of changes, once any changes have been saved or
+	 * discarded when closing.
+	 * </p>
+	 */
+	void closeFile()
+	{
+		journal.close();
+	}
+
+	boolean saveAsFile(SaveListener saveListener)
+	{
+		return saveFile(true, saveListener);
+	}
+
+	/**
+	 * <p>
+	 * Notified on the UI thread when a file has been opened or could not be
+	 * opened.  Neither is called if opening is cancelled.
+	 * </p>
+	 */
+	interface OpenListener
+	{
+		void fileOpened(String fileName);
+
+		void fileOpenFailed(String fileName);
+	}
+
+	/**
+	 * <p>
+	 * Notified on the UI thread when a file has been written.
+	 * </p>
+	 */
+	interface SaveListener
+	{
+		void fileSaved(String fileName);
+	}
+
+	/**
+	 * <p>
+	 * Reads a file into a FileContents on its own thread, then sets it on
+	 * the UI thread.
+	 * </p>
+	 */
+	private final class OpenFileThread implements Runnable
+	{
+		private final String fileName;
+		private final OpenListener openListener;
+		private final boolean confirmed;
+		private final int modifyCount;
+		private final FileContents contents;
+		private final Future<?> reading;
+
+		private volatile boolean done;
+		private String errorMessage, errorInfo;
+		private OpenProgressDialog progressDialog;
+		private boolean streaming, prompting;
+
+		private OpenFileThread(String fileName, OpenListener openListener, boolean confirmed, FileContents contents, Future<?> reading)
+		{
+			this.fileName = fileName;
+			this.openListener = openListener;
+			this.confirmed = confirmed;
+			this.contents = contents;
+			this.reading = reading;
+			modifyCount = bzStyledText.getModifyCount();
+		}
+
+		private void cancel()
+		{
+			contents.cancel();
+			closeProgressDialog();
+			if(streaming)
+				stopStreaming();
+		}
+
+		private void closeProgressDialog()
+		{
+			if(progressDialog != null)
+				progressDialog.close();
+			progressDialog = null;
+		}
 
-			if(fileName.endsWith("brf"))
+		@Override
+		public void run()
+		{
+			try
 			{
-				writer = new OutputStreamWriter(new FileOutputStream(fileName), Charset.forName("US-ASCII"));
-				bzStyledText.writeBRF(writer);
+				//   already being read on another thread
+				if(reading != null)
+					BZStartup.join(reading, Exception.class);
+				else
+					readContents(fileName, contents);
 			}
-			else if(fileName.endsWith("bzy"))
+			catch(CancellationException ignored){}
+			catch(FileNotFoundException | NoSuchFileException exception)
 			{
-				writer = new OutputStreamWriter(new FileOutputStream(fileName));
-				bzStyledText.writeBZY(writer);
+				errorMessage = "Unable to open file";
+				errorInfo = exception.getMessage();
 			}
-			else
+			catch(IOException exception)
 			{
-				writer = new OutputStreamWriter(new FileOutputStream(fileName));
-				bzStyledText.writeBRF(writer);
+				errorMessage = "Unable to read file";
+				errorInfo = exception.getMessage();
+			}
+			catch(Exception exception)
+			{
+				errorMessage = "Unable to read file";
+				errorInfo = fileName + ":  " + exception.getMessage();
+			}
+			finally
+			{
+				done = true;
 			}
 
-			writer.close();
+			try
+			{
+				parentShell.getDisplay().asyncExec(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						finish();
+					}
+				});
+			}
+			catch(SWTException ignored)
+			{
+				//   display was disposed while reading
+			}
+		}
+
+		/**
+		 * <p>
+		 * Asks to save the current text before it is replaced.
+		 * </p>
+		 */
+		private boolean confirmReplace()
+		{
+			//   text may have been changed while the file was read
+			if(confirmed && bzStyledText.getModifyCount() == modifyCount)
+				return true;
+
+			prompting = true;
+			try
+			{
+				return checkModified();
+			}
+			finally
+			{
+				prompting = false;
+			}
+		}
+
+		/**
+		 * <p>
+		 * Called on the UI thread while the file is read.  Once some of the
+		 * text is available it is shown, and the rest is added to it as it
+		 * is read.
+		 * </p>
+		 */
+		private void stream()
+		{
+			if(parentShell.isDisposed())
+				return;
+			if(prompting || !done)
+				parentShell.getDisplay().timerExec(STREAM_INTERVAL, new StreamFileContents(this));
+			if(prompting)
+				return;
+			if(done)
+			{
+				finish();
+				return;
+			}
+			if(openFileThread != this || contents.isCancelled())
+				return;
+
+			if(streaming)
+			{
+				bzStyledText.appendFileContents(contents);
+				return;
+			}
+			if(contents.getAvailable() == 0)
+				return;
+
+			if(!confirmReplace())
+			{
+				if(openFileThread == this)
+					cancelOpenFile();
+				return;
+			}
+			if(openFileThread != this || contents.isCancelled())
+				return;
+
+			streaming = true;
+			bzStyledText.startFileContents(contents);
+			textCount++;
+			BZFile.this.fileName = null;
+			journal.fileClosed();
+			parentShell.setText(new File(fileName).getName() + " - BrailleZephyr");
+		}
+
+		private void stopStreaming()
+		{
+			streaming = false;
+			bzStyledText.stopFileContents();
+			parentShell.setText("BrailleZephyr");
+		}
+
+		private void finish()
+		{
+			if(parentShell.isDisposed())
+				return;
+
+			//   a question is being asked from stream
+			if(prompting)
+			{
+				parentShell.getDisplay().timerExec(STREAM_INTERVAL, new StreamFileContents(this));
+				return;
+			}
+
+			closeProgressDialog();
+			if(openFileThread != this || contents.isCancelled())
+				return;
+			openFileThread = null;
+
+			if(errorMessage != null)
+			{
+				if(streaming)
+					stopStreaming();
+				logError(errorMessage, errorInfo);
+				if(openListener != null)
+					openListener.fileOpenFailed(fileName);
+				return;
+			}
+
+			if(streaming)
+			{
+				streaming = false;
+				bzStyledText.finishFileContents(contents);
+			}
+			else
+			{
+				if(!confirmReplace())
+					return;
+				bzStyledText.setFileContents(contents);
+				textCount++;
+			}
 			parentShell.setText(new File(fileName).getName() + " - BrailleZephyr");
+			BZFile.this.fileName = fileName;
+			journal.fileOpened(fileName);
+			if(openListener != null)
+				openListener.fileOpened(fileName);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Writes a snapshot of the text to a temporary file in the same
+	 * directory, then moves it over the file.  The file is either left as it
+	 * was or completely replaced, even if writing fails part way through.
+	 * </p>
+	 */
+	private final class SaveFileThread implements Runnable
+	{
+		private final String fileName;
+		private final FileSnapshot snapshot;
+		private final SaveListener saveListener;
+		private final int textCount;
+
+		private SaveFileThread(String fileName, FileSnapshot snapshot, SaveListener saveListener)
+		{
 			this.fileName = fileName;
-			return true;
+			this.snapshot = snapshot;
+			this.saveListener = saveListener;
+			textCount = BZFile.this.textCount;
+		}
+
+		@Override
+		public void run()
+		{
+			Path path = Paths.get(fileName).toAbsolutePath();
+			Path tempPath = path.resolveSibling('.' + path.getFileName().toString() + ".tmp");
+			String errorMessage = null;
+			IOException error = null;
+
+			try
+			{
+				writeFile(tempPath);
+				copyPermissions(path, tempPath);
+				try
+				{
+					Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				}
+				catch(AtomicMoveNotSupportedException ignored)
+				{
+					Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+				}
+				syncDirectory(path.getParent());
+			}
+			catch(FileNotFoundException exception)
+			{
+				errorMessage = "Unable to open file";
+				error = exception;
+			}
+			catch(IOException exception)
+			{
+				errorMessage = "Unable to write file";
+				error = exception;
+			}
+
+			if(error != null)
+			{
+				try
+				{
+					Files.deleteIfExists(tempPath);
+				}
+				catch(IOException ignored){}
+			}
+			saveFailed = error != null;
+
+			final String finishMessage = errorMessage;
+			final IOException finishError = error;
+			try
+			{
+				parentShell.getDisplay().asyncExec(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if(parentShell.isDisposed())
+							return;
+						if(finishError != null)
+						{
+							logError(finishMessage, finishError);
+							return;
+						}
+
+						//   the text may have been replaced since it was saved
+						if(textCount == BZFile.this.textCount)
+						{
+							if(!fileName.equals(BZFile.this.fileName))
+							{
+								BZFile.this.fileName = fileName;
+								parentShell.setText(new File(fileName).getName() + " - BrailleZephyr");
+							}
+							bzStyledText.setSaved(snapshot);
+							journal.fileSaved(fileName, snapshot);
+						}
+						if(saveListener != null)
+							saveListener.fileSaved(fileName);
+					}
+				});
+			}
+			catch(SWTException ignored)
+			{
+				//   display was disposed while writing
+			}
+		}
+
+		private void writeFile(Path tempPath) throws IOException
+		{
+			FileOutputStream outputStream = new FileOutputStream(tempPath.toFile());
+			try
+			{
+				Writer writer;
+
+				if(fileName.endsWith("brf"))
+				{
+					writer = new AsciiWriter(outputStream);
+					snapshot.writeBRF(writer);
+				}
+				else if(fileName.endsWith("bzy"))
+				{
+					writer = new BufferedWriter(new OutputStreamWriter(outputStream), 65536);
+					snapshot.writeBZY(writer);
+				}
+				else
+				{
+					writer = new BufferedWriter(new OutputStreamWriter(outputStream), 65536);
+					snapshot.writeBRF(writer);
+				}
+
+				//   make sure the text is on disk before it replaces the file
+				writer.flush();
+				outputStream.getFD().sync();
+			}
+			finally
+			{
+				outputStream.close();
+			}
+		}
+
+		private void copyPermissions(Path path, Path tempPath)
+		{
+			try
+			{
+				if(Files.exists(path))
+					Files.setPosixFilePermissions(tempPath, Files.getPosixFilePermissions(path));
+			}
+			catch(IOException | UnsupportedOperationException ignored)
+			{
+				//   not a POSIX file system
+			}
+		}
+
+		private void syncDirectory(Path directory)
+		{
+			if(directory == null)
+				return;
+
+			//   not possible on all platforms, the move is still atomic
+			try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ))
+			{
+				channel.force(true);
+			}
+			catch(IOException ignored){}
+		}
+	}
+
+	private final class StreamFileContents implements Runnable
+	{
+		private final OpenFileThread openFileThread;
+
+		private StreamFileContents(OpenFileThread openFileThread)
+		{
+			this.openFileThread = openFileThread;
+		}
+
+		@Override
+		public void run()
+		{
+			openFileThread.stream();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Only show the progress dialog when a file is not read almost at once.
+	 * </p>
+	 */
+	private final class ShowProgress implements Runnable
+	{
+		private final OpenFileThread openFileThread;
+
+		private ShowProgress(OpenFileThread openFileThread)
+		{
+			this.openFileThread = openFileThread;
+		}
+
+		@Override
+		public void run()
+		{
+			if(openFileThread.done || openFileThread.contents.isCancelled() || parentShell.isDisposed())
+				return;
+			openFileThread.progressDialog = new OpenProgressDialog(openFileThread);
+		}
+	}
+
+	private final class OpenProgressDialog implements SelectionListener, DisposeListener, Runnable
+	{
+		private final OpenFileThread openFileThread;
+		private final Shell shell;
+		private final ProgressBar progressBar;
+		private final Button cancelButton;
+
+		private OpenProgressDialog(OpenFileThread openFileThread)
+		{
+			this.openFileThread = openFileThread;
+
+			shell = new Shell(parentShell, SWT.DIALOG_TRIM);
+			shell.setText("Opening " + new File(openFileThread.fileName).getName());
+			shell.setLayout(new GridLayout(2, false));
+			shell.addDisposeListener(this);
+
+			progressBar = new ProgressBar(shell, SWT.HORIZONTAL);
+			GridData gridData = new GridData(GridData.FILL_HORIZONTAL);
+			gridData.widthHint = 300;
+			progressBar.setLayoutData(gridData);
+			progressBar.setMaximum(100);
+
+			cancelButton = new Button(shell, SWT.PUSH);
+			cancelButton.setText("Cancel");
+			cancelButton.addSelectionListener(this);
+
+			shell.pack();
+			shell.open();
+			parentShell.getDisplay().timerExec(100, this);
+		}
+
+		private void close()
+		{
+			if(!shell.isDisposed())
+				shell.dispose();
 		}
-		catch(FileNotFoundException exception)
+
+		@Override
+		public void run()
 		{
-			logError("Unable to open file", exception);
+			if(shell.isDisposed())
+				return;
+			progressBar.setSelection(openFileThread.contents.getPercentRead());
+			parentShell.getDisplay().timerExec(100, this);
 		}
-		catch(IOException exception)
+
+		@Override
+		public void widgetSelected(SelectionEvent ignored)
 		{
-			logError("Unable to write file", exception);
+			close();
 		}
 
-		return false;
+		@Override
+		public void widgetDefaultSelected(SelectionEvent ignored){}
+
+		@Override
+		public void widgetDisposed(DisposeEvent ignored)
+		{
+			//   closing the dialog any way other than finishing cancels
+			openFileThread.progressDialog = null;
+			if(!openFileThread.done)
+			{
+				logMessage("Cancelled opening file:  " + openFileThread.fileName);
+				if(openFileThread == BZFile.this.openFileThread)
+					cancelOpenFile();
+				else
+					openFileThread.cancel();
+			}
+		}
 	}
 
-	boolean saveAsFile()
+	/**
+	 * <p>
+	 * Buffered writer that encodes characters as US-ASCII bytes.  Characters
+	 * outside of US-ASCII are written as '?', the same as the US-ASCII
+	 * charset does.
+	 * </p>
+	 */
+	static final class AsciiWriter extends Writer
 	{
-		//   set fileName to null so saveFile will ask for a new file name
-		String fileName = this.fileName;
-		this.fileName = null;
-		if(saveFile())
-			return true;
+		private final OutputStream outputStream;
+		private final byte buffer[] = new byte[65536];
+		private int length;
 
-		//   saveFile didn't save, reset fileName
-		this.fileName = fileName;
-		return false;
+		AsciiWriter(OutputStream outputStream)
+		{
+			this.outputStream = outputStream;
+		}
+
+		@Override
+		public void write(int c) throws IOException
+		{
+			if(length == buffer.length)
+				flushBuffer();
+			buffer[length++] = (byte)(c < 0x80 ? c : '?');
+		}
+
+		@Override
+		public void write(char chars[], int offset, int count) throws IOException
+		{
+			for(int i = offset; i < offset + count; i++)
+			{
+				if(length == buffer.length)
+					flushBuffer();
+				char c = chars[i];
+				buffer[length++] = (byte)(c < 0x80 ? c : '?');
+			}
+		}
+
+		@Override
+		public void write(String string, int offset, int count) throws IOException
+		{
+			for(int i = offset; i < offset + count; i++)
+				write(string.charAt(i));
+		}
+
+		private void flushBuffer() throws IOException
+		{
+			outputStream.write(buffer, 0, length);
+			length = 0;
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			flushBuffer();
+			outputStream.flush();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			flush();
+			outputStream.close();
+		}
 	}
 }
@@ -0,0 +1,214 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr;
+
+import org.eclipse.swt.widgets.Display;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Registers the braille fonts with the display when they are first used.
+ * </p><p>
+ * The fonts are resources, but the display can only load them from files,
+ * so each is copied to a cache directory the first time it is needed.
+ * The name of each copy has a hash of its contents, so a copy is only
+ * written once, and is written again only when the font changes.  The
+ * directory has the version of the cache in its name, so that a different
+ * layout would not use an old one.
+ * </p>
+ */
+final class BZFonts
+{
+	static final String FAMILIES[] =
+	{
+		"BrailleZephyr_6", "BrailleZephyr_6b", "BrailleZephyr_6s", "BrailleZephyr_6sb",
+		"BrailleZephyr_8", "BrailleZephyr_8b", "BrailleZephyr_8s", "BrailleZephyr_8sb",
+		"BrailleZephyr_8w", "BrailleZephyr_8wb", "BrailleZephyr_8ws", "BrailleZephyr_8wsb",
+	};
+
+	static final String DEFAULT_FAMILY = "BrailleZephyr_6s";
+
+	private static final int CACHE_VERSION = 1;
+	private static final File DIRECTORY = new File(System.getProperty("user.home"), ".braillezephyr-fonts" + File.separator + CACHE_VERSION);
+
+	private final Display display;
+	private final BZLog log;
+	private final Set<String> registered = new HashSet<>();
+	private final Map<String, Future<File>> cacheFiles = new HashMap<>();
+
+	/**
+	 * <p>
+	 * Creates a new <code>BZFonts</code>.  No fonts are read or registered
+	 * until they are used.
+	 * </p>
+	 *
+	 * @param display the display the fonts are registered with
+	 * @param log where errors copying or loading fonts are logged
+	 */
+	BZFonts(Display display, BZLog log)
+	{
+		this.display = display;
+		this.log = log;
+	}
+
+	/**
+	 * <p>
+	 * Gives the cached copy of the font of <code>family</code> that is being
+	 * made on another thread by {@link #getCacheFile(String)}, so that
+	 * registering it waits for that instead of making another.
+	 * </p>
+	 */
+	void setCacheFile(String family, Future<File> cacheFile)
+	{
+		cacheFiles.put(family, cacheFile);
+	}
+
+	/**
+	 * <p>
+	 * Registers the font of <code>family</code> with the display, if it is
+	 * a braille font and is not registered yet.  Other families are
+	 * ignored.
+	 * </p>
+	 *
+	 * @param family the name of the font family
+	 *
+	 * @return false if the font could not be registered
+	 */
+	boolean register(String family)
+	{
+		if(registered.contains(family))
+			return true;
+		boolean braille = false;
+		for(String name : FAMILIES)
+		if(name.equals(family))
+			braille = true;
+		if(!braille)
+			return true;
+
+		try
+		{
+			Future<File> cacheFile = cacheFiles.remove(family);
+			File file = cacheFile != null ? BZStartup.join(cacheFile, IOException.class) : getCacheFile(family);
+			if(!display.loadFont(file.getPath()))
+			{
+				log.error("Unable to load font file:  " + file.getPath());
+				return false;
+			}
+		}
+		catch(IOException exception)
+		{
+			log.error("Unable to cache font " + family + ":  " + exception.getMessage());
+			return false;
+		}
+		registered.add(family);
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Registers all the braille fonts, so that they can be chosen in a
+	 * font dialog.
+	 * </p>
+	 */
+	void registerAll()
+	{
+		for(String family : FAMILIES)
+			register(family);
+	}
+
+	/**
+	 * <p>
+	 * Returns the cached copy of the font of <code>family</code>, writing it
+	 * if there is none for the current contents of the font.  This may be
+	 * called from any thread.
+	 * </p>
+	 */
+	static File getCacheFile(String family) throws IOException
+	{
+		byte bytes[];
+		try(InputStream inputStream = BZFonts.class.getResourceAsStream("/fonts/" + family + ".otf"))
+		{
+			if(inputStream == null)
+				throw new IOException("missing resource /fonts/" + family + ".otf");
+			bytes = inputStream.readAllBytes();
+		}
+
+		File file = new File(DIRECTORY, family + "-" + getHash(bytes) + ".otf");
+		if(file.isFile() && file.length() == bytes.length)
+			return file;
+
+		//   write to a temporary file first, so a partial copy is never used
+		Path path = file.toPath();
+		Files.createDirectories(DIRECTORY.toPath());
+		Path tempPath = Files.createTempFile(DIRECTORY.toPath(), family, ".tmp");
+		try
+		{
+			Files.write(tempPath, bytes);
+			try
+			{
+				Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch(AtomicMoveNotSupportedException ignored)
+			{
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(tempPath);
+		}
+
+		//   remove copies of older versions of the font
+		File files[] = DIRECTORY.listFiles();
+		if(files != null)
+		for(File old : files)
+		if(old.getName().startsWith(family + "-") && !old.equals(file))
+			old.delete();
+
+		return file;
+	}
+
+	//   the first 64 bits of the SHA-256 of bytes, in hex
+	private static String getHash(byte bytes[]) throws IOException
+	{
+		try
+		{
+			byte digest[] = MessageDigest.getInstance("SHA-256").digest(bytes);
+			StringBuilder hash = new StringBuilder();
+			for(int i = 0; i < 8; i++)
+				hash.append(String.format("%02x", digest[i]));
+			return hash.toString();
+		}
+		catch(NoSuchAlgorithmException exception)
+		{
+			throw new IOException(exception);
+		}
+	}
+}
@@ -0,0 +1,644 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr;
+
+import org.aph.braillezephyr.document.BZDocument;
+import org.aph.braillezephyr.document.BZDocument.FileSnapshot;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
+import org.eclipse.swt.widgets.MessageBox;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * This class keeps a journal of the changes made to the text since it was
+ * last saved, so they can be recovered if BrailleZephyr does not close
+ * normally.
+ * </p><p>
+ * The journal is kept next to the file, with the same name starting with a
+ * period and ending with .bzj.  It starts with the size and modified time
+ * of the saved file, and the length and checksum of the text that was
+ * saved, followed by a record for each change.  Records are
+ * only ever appended, and are written on their own thread.  Changes made
+ * close together are written and synced to disk together.
+ * </p><p>
+ * When a file is opened that has a journal matching it, the changes can be
+ * replayed against it.  They are only replayed if the text read from the
+ * file is the same as the text that was saved, since the changes are
+ * offsets into it, and some files such as BRF do not keep all of it.  Text that has never been saved is journaled to a
+ * temporary file instead, so that its changes can be kept when it is first
+ * saved, but it cannot be recovered.
+ * </p><p>
+ * The changes are not kept in memory.  When the file is saved the journal
+ * is rewritten by reading it back and keeping only the changes made since.
+ * </p>
+ */
+public final class BZJournal extends BZBase implements BZDocument.EditListener
+{
+	//   "BZJ2"
+	private static final int MAGIC = 0x425a4a32;
+	private static final int HEADER_LENGTH = 28;
+
+	//   how long to wait for more changes before syncing to disk
+	private static final long COMMIT_DELAY = 100;
+
+	private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+	private final Thread thread;
+	private String fileName;
+
+	//   only used by the journal thread
+	private Path path;
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+	/**
+	 * <p>
+	 * Creates a new <code>BZJournal</code> object that records the changes
+	 * made to <code>bzStyledText</code>.
+	 * </p>
+	 *
+	 * @param bzStyledText the bzStyledText object to operate on (cannot be null)
+	 */
+	public BZJournal(BZStyledText bzStyledText)
+	{
+		super(bzStyledText);
+		bzStyledText.addEditListener(this);
+		thread = new Thread(new JournalThread(), "BrailleZephyr journal");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static Path getJournalPath(String fileName)
+	{
+		Path path = Paths.get(fileName).toAbsolutePath();
+		return path.resolveSibling('.' + path.getFileName().toString() + ".bzj");
+	}
+
+	@Override
+	public void textEdited(int modifyCount, int start, int replacedLength, String text)
+	{
+		queue.add(new Edit(modifyCount, start, replacedLength, text));
+	}
+
+	/**
+	 * <p>
+	 * Starts the journal for a file that has just been opened.  If there is
+	 * a journal left from before for the file, asks whether to recover its
+	 * changes.
+	 * </p>
+	 *
+	 * @param fileName the name of the file that was opened
+	 */
+	void fileOpened(String fileName)
+	{
+		//   a journal being written by this instance is not recovered
+		JournalReader reader = null;
+		if(!fileName.equals(this.fileName))
+			reader = openJournal(fileName);
+
+		//   the reader keeps reading the old journal after it is replaced
+		FileSnapshot snapshot = bzStyledText.getFileSnapshot();
+		fileSaved(fileName, snapshot);
+
+		if(reader == null)
+			return;
+		try
+		{
+			Edit edit = reader.next();
+			if(edit == null)
+				return;
+			if(reader.charCount != snapshot.getCharCount() || reader.checksum != snapshot.getChecksum())
+			{
+				logMessage("WARNING:  Journal does not match text read from file:  " + fileName);
+				return;
+			}
+
+			MessageBox messageBox = new MessageBox(parentShell, SWT.ICON_QUESTION | SWT.YES | SWT.NO);
+			messageBox.setMessage("There are unsaved changes to " + Paths.get(fileName).getFileName() + " from when BrailleZephyr last closed.  Would you like to recover them?");
+			if(messageBox.open() != SWT.YES)
+				return;
+
+			//   the recovered changes are undone as one
+			int count = 0;
+			bzStyledText.beginBatch();
+			try
+			{
+				for(; edit != null; edit = reader.next())
+				{
+					try
+					{
+						bzStyledText.replaceTextRange(edit.start, edit.replacedLength, edit.text);
+					}
+					catch(IllegalArgumentException exception)
+					{
+						logError("Unable to recover all changes", count + " recovered");
+						return;
+					}
+					count++;
+				}
+			}
+			finally
+			{
+				bzStyledText.commitBatch();
+			}
+			logMessage("Recovered " + count + " changes to " + fileName);
+		}
+		catch(IOException exception)
+		{
+			logError("Unable to read journal", exception, false);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Restarts the journal once <code>fileName</code> holds the text of
+	 * <code>snapshot</code>.  Changes made after the snapshot are kept.
+	 * </p>
+	 *
+	 * @param fileName the name of the file that was saved
+	 * @param snapshot the text that was saved
+	 */
+	void fileSaved(String fileName, FileSnapshot snapshot)
+	{
+		this.fileName = fileName;
+		queue.add(new Reset(fileName, snapshot, snapshot.getModifyCount(), false));
+	}
+
+	/**
+	 * <p>
+	 * Removes the journal when the text is replaced by a new one.
+	 * </p>
+	 */
+	void fileClosed()
+	{
+		fileName = null;
+		queue.add(new Reset(null, null, bzStyledText.getModifyCount(), false));
+	}
+
+	/**
+	 * <p>
+	 * Removes the journal and stops the journal thread.  This is called
+	 * when BrailleZephyr closes normally, after any changes were saved or
+	 * discarded.
+	 * </p>
+	 */
+	void close()
+	{
+		fileName = null;
+		queue.add(new Reset(null, null, Integer.MAX_VALUE, true));
+		try
+		{
+			thread.join(5000);
+		}
+		catch(InterruptedException ignored){}
+	}
+
+	/**
+	 * <p>
+	 * Opens the journal for <code>fileName</code>, if the file has not been
+	 * changed since the journal was started.
+	 * </p>
+	 *
+	 * @param fileName the name of the file
+	 *
+	 * @return the journal, or null if there is no usable journal
+	 */
+	private JournalReader openJournal(String fileName)
+	{
+		Path journalPath = getJournalPath(fileName);
+		if(!Files.isRegularFile(journalPath))
+			return null;
+
+		JournalReader reader = null;
+		try
+		{
+			Path path = Paths.get(fileName);
+			reader = new JournalReader(journalPath);
+			if(!reader.valid)
+			{
+				reader.close();
+				return null;
+			}
+			if(reader.fileSize != Files.size(path) || reader.fileModified != Files.getLastModifiedTime(path).toMillis())
+			{
+				logMessage("WARNING:  Journal does not match file:  " + fileName);
+				reader.close();
+				return null;
+			}
+			return reader;
+		}
+		catch(IOException exception)
+		{
+			if(reader != null)
+				reader.close();
+			logError("Unable to read journal", exception, false);
+			return null;
+		}
+	}
+
+	/**
+	 * <p>
+	 * A change to the text.
+	 * </p>
+	 */
+	private static final class Edit
+	{
+		private final int modifyCount, start, replacedLength;
+		private final String text;
+
+		private Edit(int modifyCount, int start, int replacedLength, String text)
+		{
+			this.modifyCount = modifyCount;
+			this.start = start;
+			this.replacedLength = replacedLength;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Starts a new journal for a file, or none if the file name is null.
+	 * The checksum of the snapshot is found on the journal thread.
+	 * </p>
+	 */
+	private static final class Reset
+	{
+		private final String fileName;
+		private final FileSnapshot snapshot;
+		private final int modifyCount;
+		private final boolean close;
+
+		private Reset(String fileName, FileSnapshot snapshot, int modifyCount, boolean close)
+		{
+			this.fileName = fileName;
+			this.snapshot = snapshot;
+			this.modifyCount = modifyCount;
+			this.close = close;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Reads the changes from a journal one at a time.  A record cut off by a
+	 * crash ends the changes.
+	 * </p>
+	 */
+	private static final class JournalReader implements Closeable
+	{
+		private final DataInputStream input;
+		private final CRC32 crc = new CRC32();
+		private byte record[] = new byte[4096];
+		private long remaining;
+
+		//   from the header, which is only valid if valid is true
+		private final boolean valid;
+		private final long fileSize, fileModified;
+		private final int charCount, checksum;
+
+		private JournalReader(Path path) throws IOException
+		{
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+			remaining = channel.size();
+			input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+			if(remaining < HEADER_LENGTH || input.readInt() != MAGIC)
+			{
+				valid = false;
+				fileSize = fileModified = 0;
+				charCount = checksum = 0;
+				remaining = 0;
+				return;
+			}
+			valid = true;
+			fileSize = input.readLong();
+			fileModified = input.readLong();
+			charCount = input.readInt();
+			checksum = input.readInt();
+			remaining -= HEADER_LENGTH;
+		}
+
+		/**
+		 * <p>
+		 * Returns the next change, or null if there are no more.
+		 * </p>
+		 */
+		private Edit next() throws IOException
+		{
+			if(remaining < 8)
+				return null;
+			int length = input.readInt();
+			int checksum = input.readInt();
+			remaining -= 8;
+			if(length < 12 || length > remaining || (length - 12) % 2 != 0)
+			{
+				remaining = 0;
+				return null;
+			}
+
+			if(record.length < length)
+				record = new byte[Math.max(length, record.length * 2)];
+			input.readFully(record, 0, length);
+			remaining -= length;
+
+			crc.reset();
+			crc.update(record, 0, length);
+			if((int)crc.getValue() != checksum)
+			{
+				remaining = 0;
+				return null;
+			}
+
+			ByteBuffer buffer = ByteBuffer.wrap(record, 0, length);
+			int modifyCount = buffer.getInt();
+			int start = buffer.getInt();
+			int replacedLength = buffer.getInt();
+			char text[] = new char[(length - 12) / 2];
+			buffer.asCharBuffer().get(text);
+			return new Edit(modifyCount, start, replacedLength, new String(text));
+		}
+
+		@Override
+		public void close()
+		{
+			try
+			{
+				input.close();
+			}
+			catch(IOException ignored){}
+		}
+	}
+
+	private final class JournalThread implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(true)
+				{
+					//   wait for the first command, then gather any that follow shortly
+					Object command = queue.take();
+					long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COMMIT_DELAY);
+					boolean written = false;
+					while(command != null)
+					{
+						if(command instanceof Edit)
+						{
+							if(channel != null)
+							{
+								append((Edit)command);
+								written = true;
+							}
+						}
+						else
+						{
+							if(written)
+								sync();
+							written = false;
+
+							Reset reset = (Reset)command;
+							reset(reset);
+							if(reset.close)
+								return;
+						}
+
+						long wait = deadline - System.nanoTime();
+						if(wait > 0)
+							command = queue.poll(wait, TimeUnit.NANOSECONDS);
+						else
+							command = queue.poll();
+					}
+
+					if(written)
+						sync();
+				}
+			}
+			catch(InterruptedException ignored){}
+		}
+
+		private void reset(Reset reset)
+		{
+			closeChannel();
+			Path oldPath = path;
+			path = null;
+			if(!reset.close)
+			try
+			{
+				//   text that has no file is journaled to a temporary file
+				if(reset.fileName != null)
+					path = getJournalPath(reset.fileName);
+				else
+					path = Files.createTempFile("braillezephyr", ".bzj");
+				rewrite(oldPath, reset);
+			}
+			catch(IOException exception)
+			{
+				failed("Unable to write journal", exception);
+			}
+
+			try
+			{
+				if(oldPath != null && !oldPath.equals(path))
+					Files.deleteIfExists(oldPath);
+			}
+			catch(IOException exception)
+			{
+				failed("Unable to remove journal", exception);
+			}
+		}
+
+		/**
+		 * <p>
+		 * Writes the journal next to it, with the changes from the journal at
+		 * <code>oldPath</code> that are not in the file, and then replaces it.
+		 * </p>
+		 */
+		private void rewrite(Path oldPath, Reset reset) throws IOException
+		{
+			Path tempPath = path.resolveSibling(path.getFileName().toString() + ".tmp");
+			try
+			{
+				channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+				buffer.clear();
+				buffer.putInt(MAGIC);
+				if(reset.fileName != null)
+				{
+					Path filePath = Paths.get(reset.fileName);
+					buffer.putLong(Files.size(filePath));
+					buffer.putLong(Files.getLastModifiedTime(filePath).toMillis());
+					buffer.putInt(reset.snapshot.getCharCount());
+					buffer.putInt(reset.snapshot.getChecksum());
+				}
+				else
+				{
+					buffer.putLong(0);
+					buffer.putLong(0);
+					buffer.putInt(0);
+					buffer.putInt(0);
+				}
+				write();
+
+				if(oldPath != null && Files.isRegularFile(oldPath))
+				try(JournalReader reader = new JournalReader(oldPath))
+				{
+					for(Edit edit = reader.next(); edit != null; edit = reader.next())
+					if(edit.modifyCount > reset.modifyCount)
+					{
+						encode(edit);
+						write();
+					}
+				}
+				channel.force(false);
+				closeChannel();
+
+				try
+				{
+					Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				}
+				catch(AtomicMoveNotSupportedException ignored)
+				{
+					Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+				}
+				channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			}
+			catch(IOException exception)
+			{
+				closeChannel();
+				try
+				{
+					Files.deleteIfExists(tempPath);
+				}
+				catch(IOException ignored){}
+				throw exception;
+			}
+		}
+
+		private void append(Edit edit)
+		{
+			encode(edit);
+			try
+			{
+				write();
+			}
+			catch(IOException exception)
+			{
+				closeChannel();
+				failed("Unable to write journal", exception);
+			}
+		}
+
+		private void encode(Edit edit)
+		{
+			int length = 12 + edit.text.length() * 2;
+			if(buffer.capacity() < length + 8)
+				buffer = ByteBuffer.allocate(Math.max(length + 8, buffer.capacity() * 2));
+
+			buffer.clear();
+			buffer.putInt(length);
+			buffer.putInt(0);
+			buffer.putInt(edit.modifyCount);
+			buffer.putInt(edit.start);
+			buffer.putInt(edit.replacedLength);
+			for(int i = 0; i < edit.text.length(); i++)
+				buffer.putChar(edit.text.charAt(i));
+
+			CRC32 crc = new CRC32();
+			crc.update(buffer.array(), 8, length);
+			buffer.putInt(4, (int)crc.getValue());
+		}
+
+		private void write() throws IOException
+		{
+			buffer.flip();
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+		}
+
+		private void sync()
+		{
+			if(channel == null)
+				return;
+			try
+			{
+				channel.force(false);
+			}
+			catch(IOException exception)
+			{
+				closeChannel();
+				failed("Unable to write journal", exception);
+			}
+		}
+
+		private void closeChannel()
+		{
+			if(channel == null)
+				return;
+			try
+			{
+				channel.close();
+			}
+			catch(IOException ignored){}
+			channel = null;
+		}
+
+		/**
+		 * <p>
+		 * Stops writing the journal until the next reset and tells the user,
+		 * since their changes can no longer be recovered.
+		 * </p>
+		 */
+		private void failed(final String message, final IOException exception)
+		{
+			try
+			{
+				parentShell.getDisplay().asyncExec(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if(!parentShell.isDisposed())
+							logError(message, exception);
+					}
+				});
+			}
+			catch(SWTException ignored)
+			{
+				//   display was disposed
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Histograms of how long each stage of entering a braille chord takes,
+ * from the key being released until the character is painted.
+ * </p><p>
+ * Times are counted in buckets that double every eight buckets, so each
+ * is within an eighth of the time recorded.  Recording a time only adds to
+ * a count, so it can be left on all the time.  It is used only on the
+ * user interface thread.
+ * </p>
+ */
+final class BZLatency
+{
+	/**
+	 * <p>
+	 * The stages timed.  INSERT includes the MODIFY and CARET stages, which
+	 * happen inside it, and GLYPH is from the key being released until the
+	 * paint after it is done.  A paint that does not come within a second
+	 * is not timed.
+	 * </p>
+	 */
+	static final int INSERT = 0, MODIFY = 1, CARET = 2, PAINT = 3, GLYPH = 4;
+
+	private static final String STAGE_NAMES[] = {"Insert", "Modify", "Caret", "Paint", "Key to glyph"};
+
+	//   eight buckets for each power of two microseconds, up to about a day
+	private static final int SUB_BUCKETS = 8, BUCKETS = SUB_BUCKETS * 38;
+
+	private final long counts[][] = new long[STAGE_NAMES.length][BUCKETS];
+	private final long totals[] = new long[STAGE_NAMES.length];
+	private final long maximums[] = new long[STAGE_NAMES.length];
+
+	/**
+	 * <p>
+	 * Adds a time to the histogram of <code>stage</code>.
+	 * </p>
+	 *
+	 * @param stage the stage timed
+	 * @param nanos the time it took in nanoseconds
+	 */
+	void record(int stage, long nanos)
+	{
+		long micros = nanos / 1000;
+		counts[stage][getBucket(micros)]++;
+		totals[stage]++;
+		if(micros > maximums[stage])
+			maximums[stage] = micros;
+	}
+
+	void clear()
+	{
+		for(int i = 0; i < counts.length; i++)
+		{
+			Arrays.fill(counts[i], 0);
+			totals[i] = maximums[i] = 0;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the time that <code>percent</code> percent of the times of
+	 * <code>stage</code> were at or under.
+	 * </p>
+	 *
+	 * @return the time in microseconds, or 0 if nothing was recorded
+	 */
+	long getPercentile(int stage, double percent)
+	{
+		long rank = (long)Math.ceil(totals[stage] * percent / 100);
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			count += counts[stage][i];
+			if(count >= rank && count > 0)
+				return Math.min(getBucketLimit(i), maximums[stage]);
+		}
+		return 0;
+	}
+
+	/**
+	 * <p>
+	 * Returns a table of the count, median, 99th percentile and maximum
+	 * time of each stage, in milliseconds.
+	 * </p>
+	 */
+	String getReport()
+	{
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-14s%8s%10s%10s%10s%n", "Stage", "Count", "p50 ms", "p99 ms", "max ms"));
+		for(int stage = 0; stage < STAGE_NAMES.length; stage++)
+			report.append(String.format("%-14s%8d%10.2f%10.2f%10.2f%n",
+			                            STAGE_NAMES[stage],
+			                            totals[stage],
+			                            getPercentile(stage, 50) / 1000.0,
+			                            getPercentile(stage, 99) / 1000.0,
+			                            maximums[stage] / 1000.0));
+		return report.toString();
+	}
+
+	private static int getBucket(long micros)
+	{
+		if(micros < SUB_BUCKETS)
+			return (int)micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int bucket = (exponent - 2) * SUB_BUCKETS + (int)((micros >> (exponent - 3)) & (SUB_BUCKETS - 1));
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	//   the largest time in microseconds counted in bucket
+	private static long getBucketLimit(int bucket)
+	{
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + 2;
+		long sub = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+	}
+}
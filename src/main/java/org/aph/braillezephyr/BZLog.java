@@ -0,0 +1,356 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Keeps the log messages shown by the log viewer, and writes them to the
+ * console and a log file.
+ * </p><p>
+ * Only the last messages are kept in memory, in a ring, so a session of
+ * any length uses the same memory.  Messages are written to the console
+ * and file by a background thread, so logging never waits for them to be
+ * written.  If the thread falls too far behind, messages are only kept in
+ * memory, and the number not written is written when it catches up.
+ * </p><p>
+ * When the log file grows past its maximum size, it is renamed with .1
+ * added, and the older one to .2, and a new file is started.
+ * </p>
+ */
+public final class BZLog
+{
+	public static final int ERROR = 0, WARNING = 1, INFO = 2, DEBUG = 3;
+
+	private static final String PREFIXES[] = {"ERROR:  ", "WARNING:  ", "", "DEBUG:  "};
+	private static final int BACKUPS = 2;
+
+	private final String lines[];
+	private int first, count;
+	private volatile int level = INFO;
+
+	private final File file;
+	private final long maxFileSize;
+	private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(4096);
+	private final AtomicInteger dropped = new AtomicInteger();
+	private final Thread writerThread;
+
+	//   set when the queue stayed full while closing
+	private volatile boolean closing;
+
+	/**
+	 * <p>
+	 * Creates a new <code>BZLog</code> and starts its writer thread.
+	 * </p>
+	 *
+	 * @param capacity the number of messages kept in memory
+	 * @param file the log file, or null to only write to the console
+	 * @param maxFileSize the size in bytes after which the file is rolled
+	 */
+	public BZLog(int capacity, File file, long maxFileSize)
+	{
+		lines = new String[capacity];
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+
+		writerThread = new Thread(new WriterHandler(), "BrailleZephyr log writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	public int getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * <p>
+	 * Sets the least important level of messages logged.
+	 * </p>
+	 *
+	 * @param level ERROR, WARNING, INFO or DEBUG
+	 */
+	public void setLevel(int level)
+	{
+		this.level = level;
+	}
+
+	/**
+	 * <p>
+	 * Logs a message at <code>level</code>, with the prefix of the level.
+	 * This may be called from any thread.
+	 * </p>
+	 *
+	 * @param level ERROR, WARNING, INFO or DEBUG
+	 * @param message the message
+	 */
+	public void log(int level, String message)
+	{
+		if(level > this.level)
+			return;
+		add(level, PREFIXES[level] + message);
+	}
+
+	/**
+	 * <p>
+	 * Logs a line that already has the prefix of its level, like
+	 * "WARNING:  ".
+	 * </p>
+	 *
+	 * @param line the line
+	 */
+	public void log(String line)
+	{
+		int lineLevel = INFO;
+		if(line.startsWith(PREFIXES[ERROR]))
+			lineLevel = ERROR;
+		else if(line.startsWith(PREFIXES[WARNING]))
+			lineLevel = WARNING;
+		else if(line.startsWith(PREFIXES[DEBUG]))
+			lineLevel = DEBUG;
+		if(lineLevel > level)
+			return;
+		add(lineLevel, line);
+	}
+
+	public void error(String message)
+	{
+		log(ERROR, message);
+	}
+
+	public void warning(String message)
+	{
+		log(WARNING, message);
+	}
+
+	public void info(String message)
+	{
+		log(INFO, message);
+	}
+
+	public void debug(String message)
+	{
+		log(DEBUG, message);
+	}
+
+	private void add(int level, String line)
+	{
+		synchronized(lines)
+		{
+			lines[(first + count) % lines.length] = line;
+			if(count < lines.length)
+				count++;
+			else
+				first = (first + 1) % lines.length;
+		}
+
+		if(!queue.offer(new Entry(level, line)))
+			dropped.incrementAndGet();
+	}
+
+	/**
+	 * <p>
+	 * Returns the messages kept in memory, oldest first.
+	 * </p>
+	 *
+	 * @return the messages, one per line
+	 */
+	public String getText()
+	{
+		StringBuilder text = new StringBuilder();
+		synchronized(lines)
+		{
+			for(int i = 0; i < count; i++)
+				text.append(lines[(first + i) % lines.length]).append(System.lineSeparator());
+		}
+		return text.toString();
+	}
+
+	/**
+	 * <p>
+	 * Waits up to <code>millis</code> for the messages logged to be
+	 * written, then stops the writer thread.
+	 * </p><p>
+	 * If the queue is still full after that, the writer thread stops without
+	 * writing the rest, and this waits up to <code>millis</code> more for it
+	 * to close the file.
+	 * </p>
+	 */
+	public void close(long millis)
+	{
+		try
+		{
+			if(!queue.offer(Entry.CLOSE, millis, TimeUnit.MILLISECONDS))
+				closing = true;
+			writerThread.join(millis);
+		}
+		catch(InterruptedException ignored)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class Entry
+	{
+		private static final Entry CLOSE = new Entry(INFO, null);
+
+		private final int level;
+		private final String line;
+
+		private Entry(int level, String line)
+		{
+			this.level = level;
+			this.line = line;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Writes the messages queued to the console and log file, flushing
+	 * them whenever the queue is empty.
+	 * </p>
+	 */
+	private final class WriterHandler implements Runnable
+	{
+		private Writer writer;
+		private long fileSize;
+
+		@Override
+		public void run()
+		{
+			openFile();
+			try
+			{
+				while(!closing)
+				{
+					Entry entry = queue.poll();
+					if(entry == null)
+					{
+						flush();
+						entry = queue.poll(1, TimeUnit.MINUTES);
+						if(entry == null)
+							continue;
+					}
+					if(entry == Entry.CLOSE)
+						break;
+
+					int count = dropped.getAndSet(0);
+					if(count > 0)
+						write(ERROR, "ERROR:  " + count + " log messages were not written");
+					write(entry.level, entry.line);
+				}
+			}
+			catch(InterruptedException ignored){}
+
+			flush();
+			closeFile();
+		}
+
+		private void write(int level, String line)
+		{
+			if(level == ERROR)
+				System.err.println(line);
+			else
+				System.out.println(line);
+
+			if(writer == null)
+				return;
+			try
+			{
+				writer.write(line);
+				writer.write(System.lineSeparator());
+				fileSize += line.length() + System.lineSeparator().length();
+				if(fileSize > maxFileSize)
+				{
+					closeFile();
+					rollFiles();
+					openFile();
+				}
+			}
+			catch(IOException exception)
+			{
+				System.err.println("ERROR:  Unable to write log file:  " + exception.getMessage());
+				closeFile();
+			}
+		}
+
+		private void flush()
+		{
+			System.err.flush();
+			System.out.flush();
+			if(writer == null)
+				return;
+			try
+			{
+				writer.flush();
+			}
+			catch(IOException exception)
+			{
+				System.err.println("ERROR:  Unable to write log file:  " + exception.getMessage());
+				closeFile();
+			}
+		}
+
+		private void openFile()
+		{
+			if(file == null)
+				return;
+			try
+			{
+				fileSize = file.length();
+				writer = new BufferedWriter(new FileWriter(file, true));
+			}
+			catch(IOException exception)
+			{
+				System.err.println("ERROR:  Unable to open log file:  " + exception.getMessage());
+				writer = null;
+			}
+		}
+
+		private void closeFile()
+		{
+			if(writer == null)
+				return;
+			try
+			{
+				writer.close();
+			}
+			catch(IOException ignored){}
+			writer = null;
+		}
+
+		//   file.log.1 -> file.log.2, file.log -> file.log.1
+		private void rollFiles()
+		{
+			for(int i = BACKUPS; i > 0; i--)
+			{
+				File from = i == 1 ? file : new File(file.getPath() + "." + (i - 1));
+				File to = new File(file.getPath() + "." + i);
+				to.delete();
+				from.renameTo(to);
+			}
+		}
+	}
+}
@@ -15,9 +15,13 @@
 
 package org.aph.braillezephyr;
 
+import org.aph.braillezephyr.document.BZDocument;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.KeyEvent;
 import org.eclipse.swt.events.KeyListener;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.events.SelectionListener;
@@ -37,7 +41,6 @@ import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Text;
 
-import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -131,6 +134,8 @@ public final class BZMenu extends BZBase
 		new MenuItem(menu, SWT.SEPARATOR);
 		new UndoHandler().addMenuItemTo(menu, "Undo\t" + mod1KeyName + "Z", SWT.MOD1 | 'z');
 		new RedoHandler().addMenuItemTo(menu, "Redo\t" + mod2KeyName + mod1KeyName + "Z", SWT.MOD1 | SWT.MOD2 | 'z');
+		new MenuItem(menu, SWT.SEPARATOR);
+		new GoToPageHandler(parentShell).addMenuItemTo(menu, "Go to Page\t" + mod1KeyName + "G", SWT.MOD1 | 'g');
 
 		//   view menu
 		menu = new Menu(menuBar);
@@ -153,6 +158,8 @@ public final class BZMenu extends BZBase
 		new LineMarginBellHandler(parentShell).addMenuItemTo(menu, "Line Margin Bell", bzStyledText.getLineMarginBell() != -1);
 		new PageMarginBellHandler(parentShell).addMenuItemTo(menu, "Page Margin Bell", bzStyledText.getPageMarginBell() != -1);
 		new RewrapFromCursorHandler().addMenuItemTo(menu, "Rewrap From Cursor\t" + mod1KeyName + "F", SWT.MOD1 | 'F');
+		new ReflowHandler(parentShell).addMenuItemTo(menu, "Reflow Document");
+		new AutoRewrapHandler(menu);
 
 		//   help menu
 		menu = new Menu(menuBar);
@@ -163,6 +170,7 @@ public final class BZMenu extends BZBase
 		new AboutHandler(parentShell).addMenuItemTo(menu, "About");
 		//TODO:  hide on non-development version
 		new LogViewerHandler(parentShell).addMenuItemTo(menu, "View Log");
+		new LatencyHandler(parentShell).addMenuItemTo(menu, "View Latency");
 	}
 
 	/**
@@ -209,13 +217,55 @@ public final class BZMenu extends BZBase
 		}
 	}
 
+	private void removeRecentFile(String fileName)
+	{
+		if(bzSettings == null)
+			return;
+
+		bzSettings.removeRecentFile(fileName);
+
+		MenuItem menuItems[] = recentFilesMenu.getItems();
+		for(MenuItem menuItem : menuItems)
+		if(menuItem.getText().equals(fileName))
+		{
+			menuItem.dispose();
+			break;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Files are opened on another thread, so the recent files are updated
+	 * once the file has actually been opened.
+	 * </p>
+	 */
+	private class RecentFilesHandler implements BZFile.OpenListener, BZFile.SaveListener
+	{
+		@Override
+		public void fileOpened(String fileName)
+		{
+			addRecentFile(fileName);
+		}
+
+		@Override
+		public void fileOpenFailed(String fileName)
+		{
+			removeRecentFile(fileName);
+		}
+
+		@Override
+		public void fileSaved(String fileName)
+		{
+			addRecentFile(fileName);
+		}
+	}
+
 	private class OpenHandler extends BaseAction
 	{
 		@Override
 		public void widgetSelected(SelectionEvent ignored)
 		{
-			if(bzFile.openFile())
-				addRecentFile(bzFile.getFileName());
+			bzFile.openFile(new RecentFilesHandler());
 		}
 	}
 
@@ -225,16 +275,7 @@ public final class BZMenu extends BZBase
 		public void widgetSelected(SelectionEvent event)
 		{
 			MenuItem menuItem = (MenuItem)event.widget;
-			String fileName = menuItem.getText();
-			if(bzFile.openFile(fileName))
-			{
-				new OpenRecentHandler().addMenuItemAt(recentFilesMenu, fileName, 0);
-				bzSettings.addRecentFile(fileName);
-			}
-			else
-				bzSettings.removeRecentFile(fileName);
-
-			menuItem.dispose();
+			bzFile.openFile(menuItem.getText(), new RecentFilesHandler());
 		}
 	}
 
@@ -252,8 +293,7 @@ public final class BZMenu extends BZBase
 		@Override
 		public void widgetSelected(SelectionEvent ignored)
 		{
-			if(bzFile.saveAsFile())
-				addRecentFile(bzFile.getFileName());
+			bzFile.saveAsFile(new RecentFilesHandler());
 		}
 	}
 
@@ -292,10 +332,6 @@ public final class BZMenu extends BZBase
 			{
 				logError("Sound file unsupported for line margin bell", fileName);
 			}
-			catch(LineUnavailableException ignore)
-			{
-				logError("Line unavailable for line margin bell", fileName);
-			}
 		}
 	}
 
@@ -325,10 +361,6 @@ public final class BZMenu extends BZBase
 			{
 				logError("Sound file unsupported for page margin bell", fileName);
 			}
-			catch(LineUnavailableException ignore)
-			{
-				logError("Line unavailable for page margin bell", fileName);
-			}
 		}
 	}
 
@@ -358,10 +390,6 @@ public final class BZMenu extends BZBase
 			{
 				logError("Sound file unsupported for page margin bell", fileName);
 			}
-			catch(LineUnavailableException ignore)
-			{
-				logError("Line unavailable for line end bell", fileName);
-			}
 		}
 	}
 
@@ -410,6 +438,79 @@ public final class BZMenu extends BZBase
 		}
 	}
 
+	private final class GoToPageHandler extends BaseAction
+	{
+		private final Shell parentShell;
+
+		private GoToPageHandler(Shell parentShell)
+		{
+			this.parentShell = parentShell;
+		}
+
+		@Override
+		public void widgetSelected(SelectionEvent ignored)
+		{
+			new GoToPageDialog(parentShell);
+		}
+	}
+
+	private final class GoToPageDialog implements SelectionListener, KeyListener
+	{
+		private final Shell shell;
+		private final Button okButton;
+		private final Button cancelButton;
+		private final Spinner spinner;
+
+		private GoToPageDialog(Shell parentShell)
+		{
+			shell = new Shell(parentShell, SWT.DIALOG_TRIM | SWT.APPLICATION_MODAL);
+			shell.setText("Go to Page");
+			shell.setLayout(new GridLayout(3, true));
+
+			spinner = new Spinner(shell, 0);
+			spinner.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_FILL));
+			spinner.setValues(bzStyledText.getCaretPage() + 1, 1, bzStyledText.getPageCount(), 0, 1, 10);
+			spinner.addKeyListener(this);
+
+			okButton = new Button(shell, SWT.PUSH);
+			okButton.setText("OK");
+			okButton.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_FILL));
+			okButton.addSelectionListener(this);
+
+			cancelButton = new Button(shell, SWT.PUSH);
+			cancelButton.setText("Cancel");
+			cancelButton.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_FILL));
+			cancelButton.addSelectionListener(this);
+
+			shell.pack();
+			shell.open();
+		}
+
+		@Override
+		public void widgetSelected(SelectionEvent event)
+		{
+			if(event.widget == okButton)
+				bzStyledText.goToPage(spinner.getSelection() - 1);
+			shell.dispose();
+		}
+
+		@Override
+		public void widgetDefaultSelected(SelectionEvent ignored){}
+
+		@Override
+		public void keyPressed(KeyEvent event)
+		{
+			if(event.keyCode == '\r' || event.keyCode == '\n')
+			{
+				bzStyledText.goToPage(spinner.getSelection() - 1);
+				shell.dispose();
+			}
+		}
+
+		@Override
+		public void keyReleased(KeyEvent ignored){}
+	}
+
 	private final class VisibleHandler extends SelectionAdapter
 	{
 		private final MenuItem brailleItem;
@@ -479,6 +580,7 @@ public final class BZMenu extends BZBase
 		@Override
 		public void widgetSelected(SelectionEvent ignored)
 		{
+			bzStyledText.registerBrailleFonts();
 			FontDialog fontDialog = new FontDialog(parentShell, SWT.OPEN);
 			fontDialog.setFontList(bzStyledText.getBrailleFont().getFontData());
 			FontData fontData = fontDialog.open();
@@ -826,6 +928,132 @@ public final class BZMenu extends BZBase
 		}
 	}
 
+	private final class ReflowHandler extends BaseAction
+	{
+		private final Shell parentShell;
+
+		private ReflowHandler(Shell parentShell)
+		{
+			this.parentShell = parentShell;
+		}
+
+		@Override
+		public void widgetSelected(SelectionEvent ignored)
+		{
+			new ReflowDialog(parentShell);
+		}
+	}
+
+	private final class ReflowDialog implements SelectionListener, KeyListener, ModifyListener, Runnable
+	{
+		private final Shell shell;
+		private final Button okButton;
+		private final Button cancelButton;
+		private final Spinner spinner;
+		private final Label pagesLabel;
+		private BZDocument.Reflow reflow;
+
+		private ReflowDialog(Shell parentShell)
+		{
+			shell = new Shell(parentShell, SWT.DIALOG_TRIM | SWT.APPLICATION_MODAL);
+			shell.setText("Reflow Document");
+			shell.setLayout(new GridLayout(3, true));
+
+			spinner = new Spinner(shell, 0);
+			spinner.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_FILL));
+			spinner.setValues(bzStyledText.getCharsPerLine(), 1, 27720, 0, 1, 10);
+			spinner.addKeyListener(this);
+			spinner.addModifyListener(this);
+
+			okButton = new Button(shell, SWT.PUSH);
+			okButton.setText("OK");
+			okButton.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_FILL));
+			okButton.addSelectionListener(this);
+
+			cancelButton = new Button(shell, SWT.PUSH);
+			cancelButton.setText("Cancel");
+			cancelButton.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_FILL));
+			cancelButton.addSelectionListener(this);
+
+			pagesLabel = new Label(shell, 0);
+			GridData gridData = new GridData(GridData.FILL_HORIZONTAL);
+			gridData.horizontalSpan = 3;
+			pagesLabel.setLayoutData(gridData);
+
+			run();
+			shell.pack();
+			shell.open();
+		}
+
+		//   shows the page count after reflowing
+		@Override
+		public void run()
+		{
+			if(shell.isDisposed())
+				return;
+			reflow = bzStyledText.reflow(spinner.getSelection());
+			pagesLabel.setText("Pages:  " + bzStyledText.getPageCount() + " now, " + reflow.getPageCount() + " after reflowing");
+		}
+
+		private void reflow()
+		{
+			if(reflow == null || reflow.getCharsPerLine() != spinner.getSelection())
+				reflow = bzStyledText.reflow(spinner.getSelection());
+			if(!bzStyledText.applyReflow(reflow))
+				bzStyledText.applyReflow(bzStyledText.reflow(spinner.getSelection()));
+		}
+
+		@Override
+		public void modifyText(ModifyEvent ignored)
+		{
+			//   wait until the spinner stops changing
+			shell.getDisplay().timerExec(300, this);
+		}
+
+		@Override
+		public void widgetSelected(SelectionEvent event)
+		{
+			if(event.widget == okButton)
+				reflow();
+			shell.dispose();
+		}
+
+		@Override
+		public void widgetDefaultSelected(SelectionEvent ignored){}
+
+		@Override
+		public void keyPressed(KeyEvent event)
+		{
+			if(event.keyCode == '\r' || event.keyCode == '\n')
+			{
+				reflow();
+				shell.dispose();
+			}
+		}
+
+		@Override
+		public void keyReleased(KeyEvent ignored){}
+	}
+
+	private final class AutoRewrapHandler extends SelectionAdapter
+	{
+		private final MenuItem item;
+
+		private AutoRewrapHandler(Menu menu)
+		{
+			item = new MenuItem(menu, SWT.CHECK);
+			item.setText("Rewrap While Typing");
+			item.setSelection(bzStyledText.getAutoRewrap());
+			item.addSelectionListener(this);
+		}
+
+		@Override
+		public void widgetSelected(SelectionEvent ignored)
+		{
+			bzStyledText.setAutoRewrap(item.getSelection());
+		}
+	}
+
 	private final class AboutHandler extends BaseAction
 	{
 		private final Shell parentShell;
@@ -924,6 +1152,64 @@ public final class BZMenu extends BZBase
 		}
 	}
 
+	private final class LatencyHandler extends BaseAction
+	{
+		private final Shell parentShell;
+
+		private LatencyHandler(Shell parentShell)
+		{
+			this.parentShell = parentShell;
+		}
+
+		@Override
+		public void widgetSelected(SelectionEvent ignored)
+		{
+			new LatencyDialog(parentShell);
+		}
+	}
+
+	private final class LatencyDialog implements SelectionListener
+	{
+		private final Shell dialog;
+		private final Text text;
+		private final Font font;
+
+		private LatencyDialog(Shell parentShell)
+		{
+			dialog = new Shell(parentShell, SWT.DIALOG_TRIM | SWT.PRIMARY_MODAL);
+			dialog.setLayout(new GridLayout(1, true));
+			dialog.setText("Braille Entry Latency");
+
+			font = new Font(parentShell.getDisplay(), "Monospace", 10, SWT.NORMAL);
+			text = new Text(dialog, SWT.READ_ONLY | SWT.BORDER | SWT.MULTI);
+			text.setLayoutData(new GridData(GridData.FILL_BOTH));
+			text.setFont(font);
+			text.setText(bzStyledText.getLatencyReport());
+
+			Button resetButton = new Button(dialog, SWT.PUSH);
+			resetButton.setText("Reset");
+			resetButton.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_END));
+			resetButton.addSelectionListener(this);
+
+			dialog.pack();
+			dialog.open();
+			while(!dialog.isDisposed())
+			if(!dialog.getDisplay().readAndDispatch())
+				dialog.getDisplay().sleep();
+			font.dispose();
+		}
+
+		@Override
+		public void widgetSelected(SelectionEvent ignored)
+		{
+			bzStyledText.clearLatency();
+			text.setText(bzStyledText.getLatencyReport());
+		}
+
+		@Override
+		public void widgetDefaultSelected(SelectionEvent ignored){}
+	}
+
 	private static class BaseAction implements SelectionListener
 	{
 		MenuItem addMenuItemTo(Menu menu,
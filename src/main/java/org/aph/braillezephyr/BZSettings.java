@@ -21,15 +21,27 @@ import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.FontData;
 import org.eclipse.swt.graphics.Point;
 
-import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>
@@ -49,6 +61,27 @@ public final class BZSettings extends BZBase
 	private Point shellSize;
 	private boolean shellMaximized;
 
+	//   how long after the last change the settings are written
+	private static final int SAVE_DELAY = 1000;
+
+	private final SaveHandler saveHandler = new SaveHandler();
+	private final AtomicReference<String> pendingText = new AtomicReference<>();
+	private volatile boolean saveFailed;
+
+	//   the text last written, only used by the save thread
+	private String writtenText;
+
+	private final ThreadPoolExecutor saveExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "BrailleZephyr save settings");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
 	/**
 	 * <p>
 	 * Creates a new <code>BZSettings</code> object for BZStyledText.
@@ -67,13 +100,42 @@ public final class BZSettings extends BZBase
 	 * @param useSize whether or not to resize the parent of bzStyledText
 	 */
 	public BZSettings(BZStyledText bzStyledText, String fileName, boolean useSize)
+	{
+		this(bzStyledText, fileName, useSize, null);
+	}
+
+	/**
+	 * <p>
+	 * Creates a new <code>BZSettings</code> object for the default
+	 * <code>fileName</code> with resizing, using the lines of the file that
+	 * are being read on another thread.
+	 * </p>
+	 *
+	 * @param bzStyledText the bzStyledText to operate on (cannot be null)
+	 * @param reading the lines from {@link #readLines(File)}
+	 */
+	BZSettings(BZStyledText bzStyledText, Future<List<String>> reading)
+	{
+		this(bzStyledText, null, true, reading);
+	}
+
+	private BZSettings(BZStyledText bzStyledText, String fileName, boolean useSize, Future<List<String>> reading)
 	{
 		super(bzStyledText);
 
 		if(fileName == null)
-			fileName = System.getProperty("user.home") + File.separator + ".braillezephyr.conf";
+			fileName = getDefaultFileName();
 		file = new File(fileName);
-		readSettings();
+		readSettings(reading);
+		saveExecutor.allowCoreThreadTimeOut(true);
+		bzStyledText.setSettingsListener(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				saveLater();
+			}
+		});
 
 		if(useSize)
 		{
@@ -128,7 +190,12 @@ public final class BZSettings extends BZBase
 	 */
 	public BZSettings(BZStyledText bzStyledText)
 	{
-		this(bzStyledText, null);
+		this(bzStyledText, (String)null);
+	}
+
+	static String getDefaultFileName()
+	{
+		return System.getProperty("user.home") + File.separator + ".braillezephyr.conf";
 	}
 
 	ArrayList<String> getRecentFiles()
@@ -147,6 +214,7 @@ public final class BZSettings extends BZBase
 		if(recentFile.equals(fileName))
 		{
 			recentFiles.remove(recentFile);
+			saveLater();
 			return;
 		}
 	}
@@ -160,6 +228,7 @@ public final class BZSettings extends BZBase
 		if(recentFiles.size() > 6)
 		for(int i = 5; i < recentFiles.size(); i++)
 			recentFiles.remove(i);
+		saveLater();
 	}
 
 	private boolean readLine(String line)
@@ -188,6 +257,8 @@ public final class BZSettings extends BZBase
 			break;
 
 		case "charsPerLine":  bzStyledText.setCharsPerLine(Integer.parseInt(value));  break;
+		case "autoRewrap":  bzStyledText.setAutoRewrap(Boolean.valueOf(value));  break;
+		case "undoMemoryLimit":  bzStyledText.setUndoMemoryLimit(Integer.parseInt(value));  break;
 		case "lineMarginBell":  bzStyledText.setLineMarginBell(Integer.parseInt(value));  break;
 		case "lineMarginFileName":
 
@@ -207,10 +278,6 @@ public final class BZSettings extends BZBase
 			{
 				logError("Sound file unsupported for line margin bell", value);
 			}
-			catch(LineUnavailableException ignore)
-			{
-				logError("Line unavailable for line margin bell", value);
-			}
 			break;
 
 		case "lineEndFileName":
@@ -231,10 +298,6 @@ public final class BZSettings extends BZBase
 			{
 				logError("Sound file unsupported for line end bell", value);
 			}
-			catch(LineUnavailableException ignore)
-			{
-				logError("Line unavailable for line end bell", value);
-			}
 			break;
 
 		case "linesPerPage":  bzStyledText.setLinesPerPage(Integer.parseInt(value));  break;
@@ -257,10 +320,6 @@ public final class BZSettings extends BZBase
 			{
 				logError("Sound file unsupported for page margin bell", value);
 			}
-			catch(LineUnavailableException ignore)
-			{
-				logError("Line unavailable for page margin bell", value);
-			}
 			break;
 
 		case "brailleText.visible":  bzStyledText.setBrailleVisible(Boolean.valueOf(value));  break;
@@ -315,59 +374,85 @@ public final class BZSettings extends BZBase
 
 	boolean readSettings()
 	{
-		if(!file.exists())
-		{
-			logMessage("Settings file not found:  " + file.getPath());
-			return false;
-		}
+		return readSettings(null);
+	}
 
-		BufferedReader reader = null;
+	private boolean readSettings(Future<List<String>> reading)
+	{
+		List<String> lines;
 		try
 		{
-			reader = new BufferedReader(new FileReader(file));
-			String line;
-			int lineNumber = 1;
-			while((line = reader.readLine()) != null)
-			{
-				try
-				{
-					if(!readLine(line))
-						logError("Unknown setting, line #" + lineNumber, line + " -- " + file.getPath(), false);
-				}
-				catch(NumberFormatException ignored)
-				{
-					logError("Bad setting value, line #" + lineNumber, line + " -- " + file.getPath(), false);
-				}
-				finally
-				{
-					lineNumber++;
-				}
-			}
+			if(reading != null)
+				lines = BZStartup.join(reading, IOException.class);
+			else
+				lines = readLines(file);
 		}
 		catch(FileNotFoundException exception)
 		{
 			logError("Unable to open settings file for reading", exception);
+			return true;
 		}
 		catch(IOException exception)
 		{
 			logError("Unable to read settings file", exception);
+			return true;
 		}
-		finally
+
+		if(lines == null)
+		{
+			logMessage("Settings file not found:  " + file.getPath());
+			return false;
+		}
+
+		int lineNumber = 1;
+		for(String line : lines)
 		{
 			try
 			{
-				if(reader != null)
-					reader.close();
+				if(!readLine(line))
+					logError("Unknown setting, line #" + lineNumber, line + " -- " + file.getPath(), false);
 			}
-			catch(IOException exception)
+			catch(NumberFormatException ignored)
+			{
+				logError("Bad setting value, line #" + lineNumber, line + " -- " + file.getPath(), false);
+			}
+			finally
 			{
-				logError("Unable to close settings file", exception);
+				lineNumber++;
 			}
 		}
 
 		return true;
 	}
 
+	/**
+	 * <p>
+	 * Reads the lines of a settings file, without using them.  This may be
+	 * called from any thread.
+	 * </p>
+	 *
+	 * @return the lines, or null if the file does not exist
+	 */
+	static List<String> readLines(File file) throws IOException
+	{
+		if(!file.exists())
+			return null;
+
+		List<String> lines = new ArrayList<>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line;
+			while((line = reader.readLine()) != null)
+				lines.add(line);
+		}
+		finally
+		{
+			reader.close();
+		}
+		return lines;
+	}
+
 	private void writeLines(PrintWriter writer)
 	{
 		String fileName;
@@ -376,6 +461,8 @@ public final class BZSettings extends BZBase
 			writer.println("size " + shellSize.x + ' ' + shellSize.y + ' ' + shellMaximized);
 
 		writer.println("charsPerLine " + bzStyledText.getCharsPerLine());
+		writer.println("autoRewrap " + bzStyledText.getAutoRewrap());
+		writer.println("undoMemoryLimit " + bzStyledText.getUndoMemoryLimit());
 		writer.println("lineMarginBell " + bzStyledText.getLineMarginBell());
 		fileName = bzStyledText.getLineMarginFileName();
 		if(fileName != null)
@@ -417,40 +504,134 @@ public final class BZSettings extends BZBase
 		writer.println();
 	}
 
+	/**
+	 * <p>
+	 * Writes the settings once they have not changed for a moment, so that
+	 * they are not lost if the program does not exit normally.
+	 * </p>
+	 */
+	void saveLater()
+	{
+		parentShell.getDisplay().timerExec(SAVE_DELAY, saveHandler);
+	}
+
+	/**
+	 * <p>
+	 * Starts writing the settings on another thread, without waiting for
+	 * them to be written.
+	 * </p>
+	 *
+	 * @return false if the settings could not be written the last time
+	 */
 	boolean writeSettings()
 	{
+		parentShell.getDisplay().timerExec(-1, saveHandler);
+
+		//   the settings are read from the widgets, so only on this thread
+		StringWriter stringWriter = new StringWriter();
+		PrintWriter writer = new PrintWriter(stringWriter);
+		writeLines(writer);
+		writer.close();
+
+		//   only the latest settings are written if some are still waiting
+		if(pendingText.getAndSet(stringWriter.toString()) == null)
+			saveExecutor.execute(new SaveSettingsThread());
+
+		return !saveFailed;
+	}
+
+	/**
+	 * <p>
+	 * Waits up to <code>millis</code> for the settings to be written, once
+	 * the display is gone.
+	 * </p>
+	 */
+	void close(long millis)
+	{
+		saveExecutor.shutdown();
 		try
 		{
-			if(!file.exists())
-			{
-				logMessage("Creating settings file:  " + file.getPath());
-				file.createNewFile();
-			}
+			saveExecutor.awaitTermination(millis, TimeUnit.MILLISECONDS);
 		}
-		catch(IOException exception)
+		catch(InterruptedException ignored)
 		{
-			logError("Unable to create settings file", exception);
-			return false;
+			Thread.currentThread().interrupt();
 		}
+	}
 
-		PrintWriter writer = null;
-		try
-		{
-			writer = new PrintWriter(file);
-			writeLines(writer);
-		}
-		catch(FileNotFoundException exception)
+	/**
+	 * <p>
+	 * Writes the settings when they have not changed for
+	 * {@link #SAVE_DELAY}.  Each change schedules it again, which moves the
+	 * time it runs later.
+	 * </p>
+	 */
+	private final class SaveHandler implements Runnable
+	{
+		@Override
+		public void run()
 		{
-			logError("Unable to open settings file for writing", exception);
-			return false;
+			if(!parentShell.isDisposed())
+				writeSettings();
 		}
-		finally
+	}
+
+	/**
+	 * <p>
+	 * Writes the settings to a temporary file in the same directory, then
+	 * moves it over the settings file, so that the file is never left
+	 * partly written.
+	 * </p>
+	 */
+	private final class SaveSettingsThread implements Runnable
+	{
+		@Override
+		public void run()
 		{
-			if(writer != null)
-				writer.close();
-		}
+			String text = pendingText.getAndSet(null);
+			if(text == null || text.equals(writtenText))
+				return;
 
-		return true;
+			Path path = file.toPath().toAbsolutePath();
+			Path tempPath = path.resolveSibling(path.getFileName().toString() + ".tmp");
+			try
+			{
+				if(!Files.exists(path))
+					logMessage("Creating settings file:  " + file.getPath());
+
+				FileOutputStream outputStream = new FileOutputStream(tempPath.toFile());
+				try
+				{
+					outputStream.write(text.getBytes());
+					outputStream.getFD().sync();
+				}
+				finally
+				{
+					outputStream.close();
+				}
+
+				try
+				{
+					Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				}
+				catch(AtomicMoveNotSupportedException ignored)
+				{
+					Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+				}
+				writtenText = text;
+				saveFailed = false;
+			}
+			catch(IOException exception)
+			{
+				logError("Unable to write settings file", exception, false);
+				saveFailed = true;
+				try
+				{
+					Files.deleteIfExists(tempPath);
+				}
+				catch(IOException ignored){}
+			}
+		}
 	}
 
 	private class ControlHandler implements ControlListener
@@ -467,6 +648,7 @@ public final class BZSettings extends BZBase
 		{
 			prevShellSize = shellSize;
 			shellSize = parentShell.getSize();
+			saveLater();
 
 			if(!checkingMaximize)
 			{
@@ -483,10 +665,9 @@ public final class BZSettings extends BZBase
 		 * <p>
 		 * The getMaximized method does not work with some window managers
 		 * inside the controlResized method.  It needs to be called after the
-		 * controlResized method returns.  Unlike the AdjustOtherThread object,
-		 * there is no corresponding event for which to wait.  So the thread for
-		 * this class is run inside controlResized with a delay and it then
-		 * checks getMaximized.
+		 * controlResized method returns.  There is no corresponding event for
+		 * which to wait.  So the thread for this class is run inside
+		 * controlResized with a delay and it then checks getMaximized.
 		 * </p>
 		 */
 		private class CheckMaximizeThread implements Runnable
@@ -498,6 +679,7 @@ public final class BZSettings extends BZBase
 				if(shellMaximized)
 					shellSize = prevShellSize;
 				checkingMaximize = false;
+				saveLater();
 			}
 		}
 	}
@@ -0,0 +1,163 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Runs the steps of starting up that only read files on other threads, so
+ * that they happen while the user interface is created, and keeps a
+ * timeline of how long each step took.
+ * </p><p>
+ * The user interface thread marks the end of each of its steps with
+ * {@link #mark(String)}, and waits for the result of a task only where it
+ * needs it.  Each step is logged with when it started and ended, in
+ * milliseconds since startup began, once the log is set.
+ * </p>
+ */
+final class BZStartup
+{
+	private final long startTime = System.nanoTime();
+	private long markTime = startTime;
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(3, new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "BrailleZephyr startup");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final List<String> timeline = new ArrayList<>();
+	private BZLog log;
+
+	/**
+	 * <p>
+	 * Starts <code>task</code> on another thread.  When it is done it is
+	 * added to the timeline as <code>phase</code>.
+	 * </p>
+	 *
+	 * @return the result of the task, to pass to {@link #join(Future, Class)}
+	 */
+	<T> Future<T> submit(String phase, Callable<T> task)
+	{
+		return executor.submit(new Callable<T>()
+		{
+			@Override
+			public T call() throws Exception
+			{
+				long taskStartTime = System.nanoTime();
+				try
+				{
+					return task.call();
+				}
+				finally
+				{
+					add(phase + " (background)", taskStartTime, System.nanoTime());
+				}
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Adds the step of the user interface thread that ends now, and which
+	 * started when the last step ended, to the timeline.
+	 * </p>
+	 */
+	void mark(String phase)
+	{
+		long time = System.nanoTime();
+		add(phase, markTime, time);
+		markTime = time;
+	}
+
+	/**
+	 * <p>
+	 * Logs the timeline so far to <code>log</code>, and the rest of it as it
+	 * happens.  No more tasks can be submitted after this.
+	 * </p>
+	 */
+	void setLog(BZLog log)
+	{
+		executor.shutdown();
+		synchronized(timeline)
+		{
+			this.log = log;
+			for(String line : timeline)
+				log.info(line);
+			timeline.clear();
+		}
+	}
+
+	private void add(String phase, long from, long to)
+	{
+		String line = String.format("Startup:  %6d - %6d ms  %s", (from - startTime) / 1000000, (to - startTime) / 1000000, phase);
+		synchronized(timeline)
+		{
+			if(log != null)
+				log.info(line);
+			else
+				timeline.add(line);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Waits for the result of a task.  If the task threw an exception of
+	 * <code>type</code> it is thrown, and unchecked exceptions are thrown
+	 * as they are.
+	 * </p>
+	 *
+	 * @throws CancellationException if the task was cancelled or the wait
+	 *                               was interrupted
+	 */
+	static <T, E extends Exception> T join(Future<T> future, Class<E> type) throws E
+	{
+		try
+		{
+			return future.get();
+		}
+		catch(InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException("interrupted");
+		}
+		catch(ExecutionException exception)
+		{
+			Throwable cause = exception.getCause();
+			if(type.isInstance(cause))
+				throw type.cast(cause);
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof Error)
+				throw (Error)cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+}
@@ -15,13 +15,20 @@
 
 package org.aph.braillezephyr;
 
+import org.aph.braillezephyr.document.BZContent;
+import org.aph.braillezephyr.document.BZDocument;
+import org.aph.braillezephyr.document.BZDocument.FileContents;
+import org.aph.braillezephyr.document.BZDocument.FileSnapshot;
+import org.aph.braillezephyr.document.BZException;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.CaretEvent;
 import org.eclipse.swt.custom.CaretListener;
 import org.eclipse.swt.custom.ExtendedModifyEvent;
 import org.eclipse.swt.custom.ExtendedModifyListener;
 import org.eclipse.swt.custom.StyledText;
-import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.custom.TextChangingEvent;
 import org.eclipse.swt.custom.VerifyKeyListener;
 import org.eclipse.swt.events.FocusEvent;
 import org.eclipse.swt.events.FocusListener;
@@ -29,35 +36,28 @@ import org.eclipse.swt.events.KeyEvent;
 import org.eclipse.swt.events.KeyListener;
 import org.eclipse.swt.events.PaintEvent;
 import org.eclipse.swt.events.PaintListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.events.VerifyEvent;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Font;
-import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
 
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
-import javax.sound.sampled.DataLine;
-import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.UnsupportedAudioFileException;
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
 import java.io.Reader;
-import java.io.StringWriter;
 import java.io.Writer;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Future;
 
 /**
  * <p>
@@ -69,43 +69,55 @@ import java.util.List;
  */
 public class BZStyledText
 {
-	private static final char PARAGRAPH_END = 0xfeff;
+	private static final char PARAGRAPH_END = BZDocument.PARAGRAPH_END;
+
+	//   how long to wait for the chord typed to be painted, in milliseconds
+	private static final int GLYPH_TIMEOUT = 1000;
+
+	private static final String ASCII_BRAILLE = " A1B'K2L@CIF/MSP\"E3H9O6R^DJG>NTQ,*5<-U8V.%[$+X!&;:4\\0Z7(_?W]#Y)=";
 
 	private final Shell parentShell;
 	private final Composite composite;
+	private final Label statusLabel;
 	private final StyledText brailleText, asciiText;
-	private final StyledTextContent content;
+	private final BZDocument document = new BZDocument();
+	private final BZContent content = document.getContent();
+	private final BZStyledTextContent styledTextContent = new BZStyledTextContent(content);
 
 	private final String versionString;
-	private final int versionMajor, versionMinor, versionPatch;
 
 	private final boolean windowBug = System.getProperty("os.name").toLowerCase().startsWith("windows");
-	private final AdjustOtherThread adjustOtherThread = new AdjustOtherThread();
+	private final AdjustOtherHandler adjustOtherHandler = new AdjustOtherHandler();
+	private final RepaintHandler repaintHandler;
+	private final BZFonts fonts;
 	private final Color color;
 
 	private StyledText currentText;
 
-	private String eol = System.getProperty("line.separator");
-	private int linesPerPage = 25;
-	private int charsPerLine = 40;
-
 	private int lineMarginBell = 33;
-	private Clip lineMarginClip;
+	private volatile BZAudio.Sound lineMarginSound;
 	private String lineMarginFileName;
 
 	private int pageMarginBell = 25;
-	private Clip pageMarginClip;
+	private volatile BZAudio.Sound pageMarginSound;
 	private String pageMarginFileName;
 
-	private Clip lineEndClip;
+	private volatile BZAudio.Sound lineEndSound;
 	private String lineEndFileName;
 
-	private final List<ExtendedModifyEvent> changes = new ArrayList<>(1000);
-	private int changeIndex, saveIndex;
-	private boolean undoing, redoing;
+	private boolean autoRewrap, replaying;
+	private Runnable settingsListener;
+	private int batchDepth;
+
+	private final BZLatency latency = new BZLatency();
 
-	private final StringWriter logString = new StringWriter();
-	private final PrintWriter logWriter = new PrintWriter(logString);
+	//   when the chord being timed was released, 0 if none, and whether it
+	//   is still being inserted
+	private long keyTime;
+	private boolean keyTiming;
+
+	private final BZLog log = new BZLog(1000, new File(System.getProperty("user.home"), ".braillezephyr.log"), 1024 * 1024);
+	private final BZAudio audio = new BZAudio(log);
 
 	/**
 	 * <p>
@@ -116,131 +128,60 @@ public class BZStyledText
 	 */
 	public BZStyledText(Shell parentShell)
 	{
-		this.parentShell = parentShell;
+		this(parentShell, null);
+	}
 
-		//   version from jar manifest
-		String version = getClass().getPackage().getImplementationVersion();
+	/**
+	 * <p>
+	 * Creates a new <code>BZStyledText</code>, using the copy of the default
+	 * braille font that is being made on another thread.
+	 * </p>
+	 *
+	 * @param parentShell parentShell of the new instance (cannot be null)
+	 * @param brailleFontFile the copy from {@link BZFonts#getCacheFile(String)},
+	 *                        or null to make it now
+	 */
+	BZStyledText(Shell parentShell, Future<File> brailleFontFile)
+	{
+		this.parentShell = parentShell;
 
-		//   version from build file
-		if(version == null)
-			version = System.getProperty("braillezephyr.version");
+		String version = BZDocument.findVersion();
 
 		//   no version
 		if(version == null)
 		{
-			logWriter.println("WARNING:  unable to determine version, using 0.0");
+			log.warning("unable to determine version, using 0.0");
 			version = "0.0";
 		}
 
 		versionString = version;
-		String[] versionStrings = versionString.split("\\.");
-		versionMajor = Integer.parseInt(versionStrings[0]);
-		if(versionStrings.length > 1)
-			versionMinor = Integer.parseInt(versionStrings[1]);
-		else
-			versionMinor = 0;
-		if(versionStrings.length > 2)
-			versionPatch = Integer.parseInt(versionStrings[2]);
-		else
-			versionPatch = 0;
 
 		color = parentShell.getDisplay().getSystemColor(SWT.COLOR_BLACK);
 
 		composite = new Composite(parentShell, 0);
 		composite.setLayout(new GridLayout(2, true));
 
-		//   load fonts
-		loadFont("BrailleZephyr_6.otf");
-		loadFont("BrailleZephyr_6b.otf");
-		loadFont("BrailleZephyr_6s.otf");
-		loadFont("BrailleZephyr_6sb.otf");
-		loadFont("BrailleZephyr_8.otf");
-		loadFont("BrailleZephyr_8b.otf");
-		loadFont("BrailleZephyr_8s.otf");
-		loadFont("BrailleZephyr_8sb.otf");
-		loadFont("BrailleZephyr_8w.otf");
-		loadFont("BrailleZephyr_8wb.otf");
-		loadFont("BrailleZephyr_8ws.otf");
-		loadFont("BrailleZephyr_8wsb.otf");
-
-		//   load line margin bell
-		try
-		{
-			InputStream inputStreamBellMargin = new BufferedInputStream(getClass().getResourceAsStream("/sounds/line_margin_bell.wav"));
-			AudioInputStream audioInputStreamMargin = AudioSystem.getAudioInputStream(inputStreamBellMargin);
-			DataLine.Info dataLineInfoMargin = new DataLine.Info(Clip.class, audioInputStreamMargin.getFormat());
-			lineMarginClip = (Clip)AudioSystem.getLine(dataLineInfoMargin);
-			lineMarginClip.open(audioInputStreamMargin);
-		}
-		catch(IOException exception)
-		{
-			logWriter.println("ERROR:  Unable to read default line margin bell file:  " + exception.getMessage());
-			lineMarginClip = null;
-		}
-		catch(UnsupportedAudioFileException exception)
-		{
-			logWriter.println("ERROR:  Sound file unsupported for default line margin bell:  " + exception.getMessage());
-			lineMarginClip = null;
-		}
-		catch(LineUnavailableException exception)
-		{
-			logWriter.println("ERROR:  Line unavailable for default line margin bell:  " + exception.getMessage());
-			lineMarginClip = null;
-		}
-
-		//   load page margin bell
-		try
-		{
-			InputStream inputStreamBellPage = new BufferedInputStream(getClass().getResourceAsStream("/sounds/page_margin_bell.wav"));
-			AudioInputStream audioInputStreamPage = AudioSystem.getAudioInputStream(inputStreamBellPage);
-			DataLine.Info dataLineInfoPage = new DataLine.Info(Clip.class, audioInputStreamPage.getFormat());
-			pageMarginClip = (Clip)AudioSystem.getLine(dataLineInfoPage);
-			pageMarginClip.open(audioInputStreamPage);
-		}
-		catch(IOException exception)
-		{
-			logWriter.println("ERROR:  Unable to read default page margin bell file:  " + exception.getMessage());
-			pageMarginClip = null;
-		}
-		catch(UnsupportedAudioFileException exception)
-		{
-			logWriter.println("ERROR:  Sound file unsupported for default page margin bell:  " + exception.getMessage());
-			pageMarginClip = null;
-		}
-		catch(LineUnavailableException exception)
-		{
-			logWriter.println("ERROR:  Line unavailable for default page margin bell:  " + exception.getMessage());
-			pageMarginClip = null;
-		}
-
-		//   load line end bell
-		try
-		{
-			InputStream inputStreamBellPage = new BufferedInputStream(getClass().getResourceAsStream("/sounds/line_end_bell.wav"));
-			AudioInputStream audioInputStreamPage = AudioSystem.getAudioInputStream(inputStreamBellPage);
-			DataLine.Info dataLineInfoPage = new DataLine.Info(Clip.class, audioInputStreamPage.getFormat());
-			lineEndClip = (Clip)AudioSystem.getLine(dataLineInfoPage);
-			lineEndClip.open(audioInputStreamPage);
-		}
-		catch(IOException exception)
-		{
-			logWriter.println("ERROR:  Unable to read default line end bell file:  " + exception.getMessage());
-			lineEndClip = null;
-		}
-		catch(UnsupportedAudioFileException exception)
-		{
-			logWriter.println("ERROR:  Sound file unsupported for default line end bell:  " + exception.getMessage());
-			lineEndClip = null;
-		}
-		catch(LineUnavailableException exception)
-		{
-			logWriter.println("ERROR:  Line unavailable for default line end bell:  " + exception.getMessage());
-			lineEndClip = null;
-		}
+		//   only the braille font shown is registered now
+		fonts = new BZFonts(parentShell.getDisplay(), log);
+		if(brailleFontFile != null)
+			fonts.setCacheFile(BZFonts.DEFAULT_FAMILY, brailleFontFile);
+		fonts.register(BZFonts.DEFAULT_FAMILY);
+
+		//   bells are read when first played
+		lineMarginSound = audio.getResourceSound("/sounds/line_margin_bell.wav");
+		if(lineMarginSound == null)
+			log.error("Unable to find default line margin bell file");
+		pageMarginSound = audio.getResourceSound("/sounds/page_margin_bell.wav");
+		if(pageMarginSound == null)
+			log.error("Unable to find default page margin bell file");
+		lineEndSound = audio.getResourceSound("/sounds/line_end_bell.wav");
+		if(lineEndSound == null)
+			log.error("Unable to find default line end bell file");
 
 		brailleText = new StyledText(composite, SWT.BORDER | SWT.MULTI | SWT.H_SCROLL | SWT.V_SCROLL);
+		brailleText.setContent(styledTextContent);
 		brailleText.setLayoutData(new GridData(GridData.FILL_BOTH));
-		brailleText.setFont(new Font(parentShell.getDisplay(), "BrailleZephyr_6s", 18, SWT.NORMAL));
+		brailleText.setFont(new Font(parentShell.getDisplay(), BZFonts.DEFAULT_FAMILY, 18, SWT.NORMAL));
 		brailleText.addFocusListener(new FocusHandler(brailleText));
 		brailleText.addPaintListener(new PaintHandler(brailleText));
 		BrailleKeyHandler brailleKeyHandler = new BrailleKeyHandler(true);
@@ -248,10 +189,8 @@ public class BZStyledText
 		brailleText.addVerifyKeyListener(brailleKeyHandler);
 		brailleText.addExtendedModifyListener(new ExtendedModifyHandler(brailleText));
 
-		content = brailleText.getContent();
-
 		asciiText = new StyledText(composite, SWT.BORDER | SWT.MULTI | SWT.H_SCROLL | SWT.V_SCROLL);
-		asciiText.setContent(content);
+		asciiText.setContent(styledTextContent);
 		asciiText.setLayoutData(new GridData(GridData.FILL_BOTH));
 		asciiText.setFont(new Font(parentShell.getDisplay(), "Monospace", 18, SWT.NORMAL));
 		asciiText.addFocusListener(new FocusHandler(asciiText));
@@ -259,38 +198,38 @@ public class BZStyledText
 		asciiText.addVerifyKeyListener(new BrailleKeyHandler(false));
 		asciiText.addExtendedModifyListener(new ExtendedModifyHandler(asciiText));
 
+		statusLabel = new Label(composite, SWT.NONE);
+		GridData gridData = new GridData(GridData.FILL_HORIZONTAL);
+		gridData.horizontalSpan = 2;
+		statusLabel.setLayoutData(gridData);
+
 		brailleText.addCaretListener(new CaretHandler(brailleText, asciiText));
 		asciiText.addCaretListener(new CaretHandler(asciiText, brailleText));
+		brailleText.getVerticalBar().addSelectionListener(adjustOtherHandler);
+		asciiText.getVerticalBar().addSelectionListener(adjustOtherHandler);
+		brailleText.addListener(SWT.MouseVerticalWheel, adjustOtherHandler);
+		asciiText.addListener(SWT.MouseVerticalWheel, adjustOtherHandler);
+		repaintHandler = new RepaintHandler();
 
 		currentText = brailleText;
+		updateStatus();
+	}
+
+	/**
+	 * <p>
+	 * Sets what is run whenever a setting is changed, so that the settings
+	 * can be saved.
+	 * </p>
+	 */
+	void setSettingsListener(Runnable settingsListener)
+	{
+		this.settingsListener = settingsListener;
 	}
 
-	private void loadFont(String fontFileName)
+	private void settingsChanged()
 	{
-		try
-		{
-			InputStream fontInputStream = getClass().getResourceAsStream("/fonts/" + fontFileName);
-			if(fontInputStream == null)
-				return;
-			File fontFile = new File(System.getProperty("java.io.tmpdir") + File.separator + fontFileName);
-			FileOutputStream fontOutputStream = new FileOutputStream(fontFile);
-			byte buffer[] = new byte[27720];
-			int length;
-			while((length = fontInputStream.read(buffer)) > 0)
-				fontOutputStream.write(buffer, 0, length);
-			fontInputStream.close();
-			fontOutputStream.close();
-
-			parentShell.getDisplay().loadFont(fontFile.getPath());
-		}
-		catch(FileNotFoundException exception)
-		{
-			logWriter.println("ERROR:  Unable to open font file:  " + exception.getMessage());
-		}
-		catch(IOException exception)
-		{
-			logWriter.println("ERROR:  Unable to read font file:  " + exception.getMessage());
-		}
+		if(settingsListener != null)
+			settingsListener.run();
 	}
 
 	Shell getParentShell()
@@ -314,7 +253,7 @@ public class BZStyledText
 	 */
 	public int getLinesPerPage()
 	{
-		return linesPerPage;
+		return document.getLinesPerPage();
 	}
 
 	/**
@@ -330,11 +269,72 @@ public class BZStyledText
 	 */
 	public void setLinesPerPage(int linesPerPage)
 	{
-		int bellDiff = this.linesPerPage - pageMarginBell;
-		this.linesPerPage = linesPerPage;
+		int bellDiff = document.getLinesPerPage() - pageMarginBell;
+		document.setLinesPerPage(linesPerPage);
 		pageMarginBell = linesPerPage - bellDiff;
 		if(pageMarginBell < 0)
 			pageMarginBell = 0;
+		updateStatus();
+		settingsChanged();
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of pages in the text.
+	 * </p>
+	 *
+	 * @return the number of pages, at least 1
+	 */
+	public int getPageCount()
+	{
+		return document.getPageCount();
+	}
+
+	/**
+	 * <p>
+	 * Returns the page the caret is on.
+	 * </p>
+	 *
+	 * @return the index of the page, starting at 0
+	 */
+	public int getCaretPage()
+	{
+		return document.getPageAtLine(content.getLineAtOffset(currentText.getCaretOffset()));
+	}
+
+	/**
+	 * <p>
+	 * Moves the caret to the start of a page, and scrolls the page to the
+	 * top of the view.
+	 * </p>
+	 *
+	 * @param page the index of the page, starting at 0
+	 */
+	public void goToPage(int page)
+	{
+		int pageCount = getPageCount();
+		if(page >= pageCount)
+			page = pageCount - 1;
+		if(page < 0)
+			page = 0;
+
+		int lineIndex = Math.min(document.getLineAtPage(page), content.getLineCount() - 1);
+		currentText.setCaretOffset(content.getOffsetAtLine(lineIndex));
+		currentText.setTopIndex(lineIndex);
+		updateStatus();
+	}
+
+	/**
+	 * <p>
+	 * Shows the page and line of the caret.
+	 * </p>
+	 */
+	private void updateStatus()
+	{
+		int lineIndex = content.getLineAtOffset(currentText.getCaretOffset());
+		String status = "Page " + (document.getPageAtLine(lineIndex) + 1) + " of " + getPageCount() + "    Line " + (document.getLineInPage(lineIndex) + 1);
+		if(!status.equals(statusLabel.getText()))
+			statusLabel.setText(status);
 	}
 
 	/**
@@ -346,12 +346,12 @@ public class BZStyledText
 	 */
 	public String getLogString()
 	{
-		return logString.toString();
+		return log.getText();
 	}
 
-	PrintWriter getLogWriter()
+	BZLog getLog()
 	{
-		return logWriter;
+		return log;
 	}
 
 	/**
@@ -365,7 +365,7 @@ public class BZStyledText
 	 */
 	public int getCharsPerLine()
 	{
-		return charsPerLine;
+		return document.getCharsPerLine();
 	}
 
 	/**
@@ -383,11 +383,12 @@ public class BZStyledText
 	 */
 	public void setCharsPerLine(int charsPerLine)
 	{
-		int bellDiff = this.charsPerLine - lineMarginBell;
-		this.charsPerLine = charsPerLine;
+		int bellDiff = document.getCharsPerLine() - lineMarginBell;
+		document.setCharsPerLine(charsPerLine);
 		lineMarginBell = charsPerLine - bellDiff;
 		if(lineMarginBell < 0)
 			lineMarginBell = 0;
+		settingsChanged();
 	}
 
 	/**
@@ -401,7 +402,7 @@ public class BZStyledText
 	 */
 	public int getLineMarginBell()
 	{
-		if(lineMarginClip == null)
+		if(lineMarginSound == null)
 			return -1;
 		return lineMarginBell;
 	}
@@ -420,9 +421,10 @@ public class BZStyledText
 	 */
 	public void setLineMarginBell(int lineMarginBell)
 	{
-		if(lineMarginClip == null)
+		if(lineMarginSound == null)
 			return;
 		this.lineMarginBell = lineMarginBell;
+		settingsChanged();
 	}
 
 	/**
@@ -449,33 +451,17 @@ public class BZStyledText
 	 * @throws FileNotFoundException
 	 * @throws IOException
 	 * @throws UnsupportedAudioFileException
-	 * @throws LineUnavailableException
 	 *
 	 * @see #getLineMarginFileName()
 	 * </p>
 	 */
 	public void loadLineMarginFileName(String fileName) throws FileNotFoundException,
 	                                                           IOException,
-	                                                           UnsupportedAudioFileException,
-	                                                           LineUnavailableException
+	                                                           UnsupportedAudioFileException
 	{
-		InputStream inputStream = new BufferedInputStream(new FileInputStream(fileName));
-		AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(inputStream);
-		DataLine.Info dataLineInfo = new DataLine.Info(Clip.class, audioInputStream.getFormat());
-		Clip clip = lineMarginClip;
-		try
-		{
-			lineMarginClip = (Clip)AudioSystem.getLine(dataLineInfo);
-			lineMarginClip.open(audioInputStream);
-		}
-		catch(IOException | LineUnavailableException exception)
-		{
-			lineMarginClip = clip;
-			throw exception;
-		}
+		lineMarginSound = audio.getFileSound(fileName);
 		lineMarginFileName = fileName;
-		if(clip != null)
-			clip.close();
+		settingsChanged();
 	}
 
 	/**
@@ -489,7 +475,7 @@ public class BZStyledText
 	 */
 	public int getPageMarginBell()
 	{
-		if(pageMarginClip == null)
+		if(pageMarginSound == null)
 			return -1;
 		return pageMarginBell;
 	}
@@ -508,9 +494,10 @@ public class BZStyledText
 	 */
 	public void setPageMarginBell(int pageMarginBell)
 	{
-		if(pageMarginClip == null)
+		if(pageMarginSound == null)
 			return;
 		this.pageMarginBell = pageMarginBell;
+		settingsChanged();
 	}
 
 	/**
@@ -537,33 +524,17 @@ public class BZStyledText
 	 * @throws FileNotFoundException
 	 * @throws IOException
 	 * @throws UnsupportedAudioFileException
-	 * @throws LineUnavailableException
 	 *
 	 * @see #getPageMarginFileName()
 	 * </p>
 	 */
 	public void loadPageMarginFileName(String fileName) throws FileNotFoundException,
 	                                                           IOException,
-	                                                           UnsupportedAudioFileException,
-	                                                           LineUnavailableException
+	                                                           UnsupportedAudioFileException
 	{
-		InputStream inputStream = new BufferedInputStream(new FileInputStream(fileName));
-		AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(inputStream);
-		DataLine.Info dataLineInfo = new DataLine.Info(Clip.class, audioInputStream.getFormat());
-		Clip clip = pageMarginClip;
-		try
-		{
-			pageMarginClip = (Clip)AudioSystem.getLine(dataLineInfo);
-			pageMarginClip.open(audioInputStream);
-		}
-		catch(IOException | LineUnavailableException exception)
-		{
-			pageMarginClip = clip;
-			throw exception;
-		}
+		pageMarginSound = audio.getFileSound(fileName);
 		pageMarginFileName = fileName;
-		if(clip != null)
-			clip.close();
+		settingsChanged();
 	}
 
 	/**
@@ -576,33 +547,17 @@ public class BZStyledText
 	 * @throws FileNotFoundException
 	 * @throws IOException
 	 * @throws UnsupportedAudioFileException
-	 * @throws LineUnavailableException
 	 *
 	 * @see #getLineEndFileName()
 	 * </p>
 	 */
 	public void loadLineEndFileName(String fileName) throws FileNotFoundException,
 	                                                        IOException,
-	                                                        UnsupportedAudioFileException,
-	                                                        LineUnavailableException
+	                                                        UnsupportedAudioFileException
 	{
-		InputStream inputStream = new BufferedInputStream(new FileInputStream(fileName));
-		AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(inputStream);
-		DataLine.Info dataLineInfo = new DataLine.Info(Clip.class, audioInputStream.getFormat());
-		Clip clip = lineEndClip;
-		try
-		{
-			lineEndClip = (Clip)AudioSystem.getLine(dataLineInfo);
-			lineEndClip.open(audioInputStream);
-		}
-		catch(IOException | LineUnavailableException exception)
-		{
-			lineEndClip = clip;
-			throw exception;
-		}
+		lineEndSound = audio.getFileSound(fileName);
 		lineEndFileName = fileName;
-		if(clip != null)
-			clip.close();
+		settingsChanged();
 	}
 
 	/**
@@ -619,6 +574,85 @@ public class BZStyledText
 		return lineEndFileName;
 	}
 
+	/**
+	 * <p>
+	 * Returns whether lines are wrapped as they are typed.
+	 * </p>
+	 *
+	 * @return the current value
+	 *
+	 * @see #setAutoRewrap(boolean)
+	 */
+	public boolean getAutoRewrap()
+	{
+		return autoRewrap;
+	}
+
+	/**
+	 * <p>
+	 * Sets whether lines are wrapped as they are typed.  When a line being
+	 * typed exceeds the number of characters per line, the words past it
+	 * are wrapped to the next line, and so on only as far as needed.
+	 * </p>
+	 *
+	 * @param autoRewrap the new value
+	 *
+	 * @see #getAutoRewrap()
+	 */
+	public void setAutoRewrap(boolean autoRewrap)
+	{
+		this.autoRewrap = autoRewrap;
+		settingsChanged();
+	}
+
+	/**
+	 * <p>
+	 * Returns a table of how long each stage of entering a braille chord
+	 * took, from the key being released until the character was painted.
+	 * </p>
+	 *
+	 * @return the count, median, 99th percentile and maximum of each stage
+	 */
+	String getLatencyReport()
+	{
+		return latency.getReport();
+	}
+
+	void clearLatency()
+	{
+		latency.clear();
+	}
+
+	/**
+	 * <p>
+	 * Returns the most memory the undo history may use.
+	 * </p>
+	 *
+	 * @return the limit in bytes
+	 *
+	 * @see #setUndoMemoryLimit(int)
+	 */
+	public int getUndoMemoryLimit()
+	{
+		return document.getUndoMemoryLimit();
+	}
+
+	/**
+	 * <p>
+	 * Sets the most memory the undo history may use, after which the oldest
+	 * changes can no longer be undone.
+	 * </p>
+	 *
+	 * @param bytes the limit in bytes
+	 *
+	 * @see #getUndoMemoryLimit()
+	 */
+	public void setUndoMemoryLimit(int bytes)
+	{
+		document.setUndoMemoryLimit(bytes);
+		settingsChanged();
+	}
+
 	/**
 	 * <p>
 	 * Returns if the braille text is visible.
@@ -648,6 +682,7 @@ public class BZStyledText
 		brailleText.setVisible(visible);
 		((GridLayout)composite.getLayout()).makeColumnsEqualWidth = visible && asciiText.getVisible();
 		composite.layout();
+		settingsChanged();
 	}
 
 	/**
@@ -679,6 +714,7 @@ public class BZStyledText
 		asciiText.setVisible(visible);
 		((GridLayout)composite.getLayout()).makeColumnsEqualWidth = visible && brailleText.getVisible();
 		composite.layout();
+		settingsChanged();
 	}
 
 	/**
@@ -697,7 +733,8 @@ public class BZStyledText
 
 	/**
 	 * <p>
-	 * Sets the font for the braille text.
+	 * Sets the font for the braille text, registering it first if it is
+	 * one of the braille fonts.
 	 * </p>
 	 *
 	 * @param font the new font
@@ -706,7 +743,33 @@ public class BZStyledText
 	 */
 	public void setBrailleFont(Font font)
 	{
+		fonts.register(font.getFontData()[0].getName());
 		brailleText.setFont(font);
+		settingsChanged();
+	}
+
+	/**
+	 * <p>
+	 * Registers all the braille fonts, so that they can be chosen in a font
+	 * dialog.  Otherwise each is only registered when it is used.
+	 * </p>
+	 */
+	void registerBrailleFonts()
+	{
+		fonts.registerAll();
+	}
+
+	/**
+	 * <p>
+	 * Reads the sounds of the bells now, instead of when they are first
+	 * played.  This may be called from any thread.
+	 * </p>
+	 */
+	void preloadBells()
+	{
+		audio.preload(lineMarginSound);
+		audio.preload(pageMarginSound);
+		audio.preload(lineEndSound);
 	}
 
 	/**
@@ -735,6 +798,7 @@ public class BZStyledText
 	public void setAsciiFont(Font font)
 	{
 		asciiText.setFont(font);
+		settingsChanged();
 	}
 
 	//TODO:  getText()
@@ -748,9 +812,7 @@ public class BZStyledText
 	 */
 	public void setText(String text)
 	{
-		content.setText(text);
-		changes.clear();
-		changeIndex = saveIndex = 0;
+		document.setText(text);
 	}
 
 	/**
@@ -760,9 +822,7 @@ public class BZStyledText
 	 */
 	public void redraw()
 	{
-		//TODO:  both?
-		brailleText.redraw();
-		asciiText.redraw();
+		repaintHandler.addLines(0, Integer.MAX_VALUE);
 	}
 
 	/**
@@ -795,6 +855,21 @@ public class BZStyledText
 		currentText.paste();
 	}
 
+	/**
+	 * <p>
+	 * Returns the ascii braille character for a chord of dots.
+	 * </p>
+	 *
+	 * @param dots the dots of the chord, dot 1 in the lowest bit through
+	 *             dot 6, as in the unicode braille patterns
+	 *
+	 * @return the ascii braille character
+	 */
+	static char getAsciiBraille(int dots)
+	{
+		return ASCII_BRAILLE.charAt(dots & 0xff);
+	}
+
 	private void scrollToCaret()
 	{
 		int caretOffset = currentText.getCaretOffset();
@@ -808,17 +883,6 @@ public class BZStyledText
 		currentText.setTopIndex(lineTop);
 	}
 
-	private void clearChanges()
-	{
-		changes.clear();
-		changeIndex = saveIndex = 0;
-	}
-
-	private void resetChanges()
-	{
-		saveIndex = changeIndex;
-	}
-
 	/**
 	 * <p>
 	 * Returns whether or not the text has been modified and needs to be
@@ -832,7 +896,102 @@ public class BZStyledText
 	 */
 	public boolean getModified()
 	{
-		return saveIndex != changeIndex;
+		return document.getModified();
+	}
+
+	/**
+	 * <p>
+	 * Adds a listener that is notified of every change to the text, whether
+	 * or not it can be undone.
+	 * </p>
+	 *
+	 * @param editListener the listener to add
+	 */
+	void addEditListener(BZDocument.EditListener editListener)
+	{
+		document.addEditListener(editListener);
+	}
+
+	/**
+	 * <p>
+	 * Replaces text in the current view as if it were typed, so that it can
+	 * be undone.
+	 * </p>
+	 *
+	 * @param start the offset of the text to replace
+	 * @param length the length of the text to replace
+	 * @param text the new text
+	 */
+	void replaceTextRange(int start, int length, String text)
+	{
+		//   the edits being replayed include any wrapping done at the time
+		replaying = true;
+		try
+		{
+			currentText.replaceTextRange(start, length, text);
+		}
+		finally
+		{
+			replaying = false;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Starts a batch of changes.  Until {@link #commitBatch()}, the views
+	 * are not redrawn, the bells are not played, the other view is not
+	 * scrolled to match the caret, and lines are not wrapped as they are
+	 * changed.  The changes are undone and redone together as one change.
+	 * </p><p>
+	 * Batches may be nested, only the outermost commit does anything.
+	 * Every call must be matched by a call to {@link #commitBatch()}, best
+	 * in a finally block.
+	 * </p>
+	 */
+	public void beginBatch()
+	{
+		if(batchDepth++ > 0)
+			return;
+		document.beginBatch();
+		brailleText.setRedraw(false);
+		asciiText.setRedraw(false);
+	}
+
+	/**
+	 * <p>
+	 * Ends the batch started by the matching {@link #beginBatch()}, then
+	 * scrolls the other view to match the caret and redraws both once.
+	 * </p>
+	 *
+	 * @throws IllegalStateException if no batch was started
+	 */
+	public void commitBatch()
+	{
+		if(batchDepth == 0)
+			throw new IllegalStateException("no batch to commit");
+		if(--batchDepth > 0)
+			return;
+		document.commitBatch();
+		brailleText.setRedraw(true);
+		asciiText.setRedraw(true);
+
+		currentText.showSelection();
+		updateStatus();
+		adjustOtherHandler.adjustOther(currentText, currentText == brailleText ? asciiText : brailleText);
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of changes made to the text since it was created.
+	 * This only ever increases, so it can be used to tell if the text was
+	 * changed between two points in time.
+	 * </p>
+	 *
+	 * @return the number of changes
+	 */
+	int getModifyCount()
+	{
+		return document.getModifyCount();
 	}
 
 	/**
@@ -847,14 +1006,13 @@ public class BZStyledText
 	 */
 	public void undo()
 	{
-		if(changeIndex < 1)
+		int caretOffset = document.undo();
+		if(caretOffset < 0)
 			return;
-		undoing = true;
-		changeIndex--;
-		ExtendedModifyEvent change = changes.remove(changeIndex);
-		currentText.replaceTextRange(change.start, change.length, change.replacedText);
-		currentText.setCaretOffset(change.start + change.replacedText.length());
+		currentText.setCaretOffset(caretOffset);
 		scrollToCaret();
+		updateStatus();
+		redraw();
 	}
 
 	/**
@@ -867,93 +1025,158 @@ public class BZStyledText
 	 */
 	public void redo()
 	{
-		if(changeIndex == changes.size())
+		int caretOffset = document.redo();
+		if(caretOffset < 0)
 			return;
-		redoing = true;
-		ExtendedModifyEvent change = changes.remove(changeIndex);
-		currentText.replaceTextRange(change.start, change.length, change.replacedText);
-		currentText.setCaretOffset(change.start + change.replacedText.length());
+		currentText.setCaretOffset(caretOffset);
 		scrollToCaret();
+		updateStatus();
+		redraw();
 	}
 
-	private boolean isFirstLineOnPage(int index)
+	/**
+	 * <p>
+	 * Shows the text of a file that is still being read.  Both views are
+	 * read only until the rest of the text is added by
+	 * <code>finishFileContents</code>.
+	 * </p>
+	 *
+	 * @param contents the text read so far
+	 *
+	 * @see #appendFileContents(FileContents)
+	 * @see #finishFileContents(FileContents)
+	 * @see #stopFileContents()
+	 */
+	void startFileContents(FileContents contents)
 	{
-		if(linesPerPage == 0)
-			return false;
-		return index % linesPerPage == 0;
+		document.startFileContents(contents);
+
+		brailleText.setEditable(false);
+		asciiText.setEditable(false);
+		brailleText.setCaretOffset(0);
+		asciiText.setCaretOffset(0);
 	}
 
 	/**
 	 * <p>
-	 * Reads data in BRF format from <code>Reader</code>.
-	 * </p><p>
-	 * An attempt is made to determine the number of lines per page.
+	 * Adds the text read since it was last shown.
 	 * </p>
 	 *
-	 * @param reader the reader stream from which to read the data.
-	 *
-	 * @exception IOException
+	 * @param contents the text being read
+	 */
+	void appendFileContents(FileContents contents)
+	{
+		document.appendFileContents(contents);
+	}
+
+	/**
+	 * <p>
+	 * Adds the rest of the text once the file has been read, and makes the
+	 * views editable again.
+	 * </p>
 	 *
-	 * @see #writeBRF(Writer)
+	 * @param contents the text that was read
 	 */
-	public void readBRF(Reader reader) throws IOException
+	void finishFileContents(FileContents contents)
 	{
-		StringBuilder stringBuilder = new StringBuilder(65536);
-		boolean checkLinesPerPage = true;
-		boolean removeFormFeed = true;
-		char buffer[] = new char[65536];
-		int cnt, trim;
+		for(String message : contents.getMessages())
+			log.log(message);
 
-		eol = null;
-		while((cnt = reader.read(buffer)) > 0)
-		{
-			//   see if lines per page can be determined
-			if(checkLinesPerPage)
-			{
-				checkLinesPerPage = false;
-				int lines = 0, i;
-				outer:for(i = 0; i < cnt; i++)
-				switch(buffer[i])
-				{
-				case '\n':  lines++;  break;
+		document.finishFileContents(contents);
+		stopFileContents();
+		redraw();
+	}
 
-				case '\r':
+	/**
+	 * <p>
+	 * Makes the views editable again when a file stops being read, keeping
+	 * the text shown so far.
+	 * </p>
+	 */
+	void stopFileContents()
+	{
+		brailleText.setEditable(true);
+		asciiText.setEditable(true);
+	}
 
-					if(eol == null)
-						eol = "\r\n";
-					break;
+	/**
+	 * <p>
+	 * Returns whether the text can be changed, which it cannot while a file
+	 * is being shown as it is read.
+	 * </p>
+	 */
+	boolean getEditable()
+	{
+		return brailleText.getEditable() && asciiText.getEditable();
+	}
 
-				case 0xc:
+	/**
+	 * <p>
+	 * Reads data in BRF format from <code>Reader</code>.
+	 * </p><p>
+	 * An attempt is made to determine the number of lines per page.
+	 * </p>
+	 *
+	 * @param reader the reader stream from which to read the data.
+	 *
+	 * @exception IOException
+	 *
+	 * @see #writeBRF(Writer)
+	 */
+	public void readBRF(Reader reader) throws IOException
+	{
+		document.readBRF(reader);
+	}
 
-					linesPerPage = lines;
-					break outer;
-				}
+	/**
+	 * <p>
+	 * Reads data in BRF format from the bytes remaining in
+	 * <code>ByteBuffer</code>.
+	 * </p>
+	 *
+	 * @param bytes the buffer from which to read the data, such as a mapped
+	 *              file
+	 *
+	 * @see BZDocument#parseBRF(ByteBuffer, FileContents)
+	 * @see #writeBRF(Writer)
+	 */
+	public void readBRF(ByteBuffer bytes)
+	{
+		FileContents contents = new FileContents(bytes.remaining());
+		BZDocument.parseBRF(bytes, contents);
+		setFileContents(contents);
+	}
 
-				if(eol == null)
-					eol = "\n";
-				if(i == cnt)
-					removeFormFeed = false;
-			}
+	/**
+	 * <p>
+	 * Sets the text and settings that were read by parseBRF or parseBZY.
+	 * </p><p>
+	 * The text replaces the current text in one change and the undo history
+	 * is cleared.  The caret and the view focus from a BrailleZephyr file
+	 * are applied afterwards.
+	 * </p>
+	 *
+	 * @param contents what was read from the file
+	 */
+	void setFileContents(FileContents contents)
+	{
+		for(String message : contents.getMessages())
+			log.log(message);
 
-			//   remove form feeds
-			if(removeFormFeed)
-			{
-				trim = 0;
-				for(int i = 0; i < cnt; i++)
-				if(buffer[i] != 0xc)
-				{
-					buffer[trim] = buffer[i];
-					trim++;
-				}
-			}
-			else
-				trim = cnt;
+		document.setFileContents(contents);
 
-			stringBuilder.append(buffer, 0, trim);
+		if("braille".equals(contents.getViewFocus()))
+		{
+			if(brailleText.isVisible())
+				brailleText.setFocus();
 		}
-
-		content.setText(stringBuilder.toString());
-		clearChanges();
+		else if("ascii".equals(contents.getViewFocus()))
+		{
+			if(asciiText.isVisible())
+				asciiText.setFocus();
+		}
+		brailleText.setCaretOffset(contents.getCaretOffset());
+		asciiText.setCaretOffset(contents.getCaretOffset());
 	}
 
 	/**
@@ -969,28 +1192,9 @@ public class BZStyledText
 	 */
 	public void writeBRF(Writer writer) throws IOException
 	{
-		//   write first line
-		String line = content.getLine(0);
-		if(line.length() > 0 && line.charAt(line.length() - 1) == PARAGRAPH_END)
-			writer.write(line.substring(0, line.length() - 1));
-		else
-			writer.write(line);
-
-		//   write remaining lines
-		for(int i = 1; i < content.getLineCount(); i++)
-		{
-			writer.write(eol);
-			if(isFirstLineOnPage(i))
-				writer.write(0xc);
-			line = content.getLine(i);
-			if(line.length() > 0 && line.charAt(line.length() - 1) == PARAGRAPH_END)
-				writer.write(line.substring(0, line.length() - 1));
-			else
-				writer.write(line);
-		}
-
-		writer.flush();
-		resetChanges();
+		FileSnapshot snapshot = getFileSnapshot();
+		snapshot.writeBRF(writer);
+		document.setSaved(snapshot);
 	}
 
 	/**
@@ -1001,91 +1205,16 @@ public class BZStyledText
 	 * @param reader the reader stream from which to read the data.
 	 *
 	 * @exception IOException
+	 * @exception BZException
 	 *
+	 * @see BZDocument#parseBZY(Reader, FileContents)
 	 * @see #writeBZY(Writer)
 	 */
 	public void readBZY(Reader reader) throws IOException, BZException
 	{
-		String line;
-		boolean returnAtEnd = false;
-		int caretOffset = 0;
-		int unknown = 0;
-
-		content.setText("");
-		eol = System.getProperty("line.separator");
-		BufferedReader buffer = new BufferedReader(reader);
-
-		//   read configuration lines
-		header:while((line = buffer.readLine()) != null)
-		{
-			String tokens[] = line.split(" ");
-			switch(tokens[0])
-			{
-
-			//   don't do anything for now
-			case "Version":  break;
-
-			case "CharsPerLine":  charsPerLine = Integer.parseInt(tokens[1]);  break;
-			case "LinesPerPage":  linesPerPage = Integer.parseInt(tokens[1]);  break;
-
-			case "CaretOffset":  caretOffset  = Integer.parseInt(tokens[1]);  break;
-			case "ViewFocus":
-
-				if(tokens[1].equals("braille"))
-				{
-					if(brailleText.isVisible())
-						brailleText.setFocus();
-				}
-				else if(tokens[1].equals("ascii"))
-				{
-					if(asciiText.isVisible())
-						asciiText.setFocus();
-				}
-				else
-					logWriter.println("ERROR:  Invalid ViewFocus value:  " + line);
-				break;
-
-			case "ReturnAtEnd":  returnAtEnd = Boolean.parseBoolean(tokens[1]); break;
-
-			case "HeaderEnd":  break header;
-
-			default:
-
-				logWriter.println("WARNING:  Unknown file format parameter:  " + line);
-				unknown++;
-				if(unknown > 6)
-					throw new BZException("Invalid file format");
-				break;
-			}
-		}
-		if(line == null)
-			throw new BZException("Invalid file format");
-
-		//   read first line, may be null for empty document
-		if((line = buffer.readLine()) != null)
-		{
-			if(line.length() > 0 && line.charAt(line.length() - 1) == 0xb6)
-				content.replaceTextRange(0, 0, line.substring(0, line.length() - 1) + PARAGRAPH_END);
-			else
-				content.replaceTextRange(0, 0, line);
-
-			//   read next lines
-			while((line = buffer.readLine()) != null)
-			{
-				content.replaceTextRange(content.getCharCount(), 0, eol);
-				if(line.length() > 0 && line.charAt(line.length() - 1) == 0xb6)
-					content.replaceTextRange(content.getCharCount(), 0, line.substring(0, line.length() - 1) + PARAGRAPH_END);
-				else
-					content.replaceTextRange(content.getCharCount(), 0, line);
-			}
-		}
-
-		if(returnAtEnd)
-			content.replaceTextRange(content.getCharCount(), 0, eol);
-
-		clearChanges();
-		brailleText.setCaretOffset(caretOffset);
-		asciiText.setCaretOffset(caretOffset);
+		FileContents contents = new FileContents(0);
+		BZDocument.parseBZY(reader, contents);
+		setFileContents(contents);
 	}
 
 	/**
@@ -1101,46 +1230,33 @@ public class BZStyledText
 	 */
 	public void writeBZY(Writer writer) throws IOException
 	{
-		//   write configuration lines
-		writer.write("Version " + versionMajor + ' ' + versionMinor + ' ' + versionPatch + eol);
-
-		writer.write("CharsPerLine " + charsPerLine + eol);
-		writer.write("LinesPerPage " + linesPerPage + eol);
-
-		writer.write("CaretOffset " + currentText.getCaretOffset() + eol);
-		writer.write("ViewFocus ");
-		if(currentText == brailleText)
-			writer.write("braille" + eol);
-		else
-			writer.write("ascii" + eol);
-
-		if(content.getCharCount() > 0)
-			writer.write("ReturnAtEnd " + (content.getLine(content.getLineCount() - 1).length() == 0) + eol);
-		else
-			writer.write("ReturnAtEnd false" + eol);
-
-		writer.write("HeaderEnd" + eol);
-
-		//   write first line
-		String line = content.getLine(0);
-		if(line.length() > 0 && line.charAt(line.length() - 1) == PARAGRAPH_END)
-			writer.write(line.substring(0, line.length() - 1) + (char)0xb6);
-		else
-			writer.write(line);
+		FileSnapshot snapshot = getFileSnapshot();
+		snapshot.writeBZY(writer);
+		document.setSaved(snapshot);
+	}
 
-		//   write text
-		for(int i = 1; i < content.getLineCount(); i++)
-		{
-			writer.write(eol);
-			line = content.getLine(i);
-			if(line.length() > 0 && line.charAt(line.length() - 1) == PARAGRAPH_END)
-				writer.write(line.substring(0, line.length() - 1) + (char)0xb6);
-			else
-				writer.write(line);
-		}
+	/**
+	 * <p>
+	 * Returns a copy of the text and settings, with the caret and focus of
+	 * the views, that can be written on another thread while the text
+	 * continues to be edited.
+	 * </p>
+	 *
+	 * @return the snapshot
+	 *
+	 * @see #setSaved(FileSnapshot)
+	 */
+	FileSnapshot getFileSnapshot()
+	{
+		return document.getFileSnapshot(currentText.getCaretOffset(), currentText == brailleText);
+	}
 
-		writer.flush();
-		resetChanges();
+	/**
+	 * @see BZDocument#setSaved(FileSnapshot)
+	 */
+	void setSaved(FileSnapshot snapshot)
+	{
+		document.setSaved(snapshot);
 	}
 
 	/**
@@ -1151,70 +1267,54 @@ public class BZStyledText
 	 * Lines are wrapped at spaces between words when possible.  Lines that
 	 * don't exceed the number of characters per line are not changed.
 	 * </p><p>
-	 * Currently this cannot be undone.
+	 * This is one change that can be undone.
 	 * </p>
 	 */
 	public void rewrapFromCaret()
 	{
-		StringBuilder stringBuilder = new StringBuilder(charsPerLine * 3);
-
-		for(int i = content.getLineAtOffset(currentText.getCaretOffset()); i < content.getLineCount(); i++)
-		{
-			String line = content.getLine(i);
-			if(line.length() == 0)
-				continue;
-
-			//   line too long
-			if(line.length() > charsPerLine)
-			{
-				int wordWrap, wordEnd;
-
-				//   find beginning of word being wrapped
-				if(line.charAt(charsPerLine) != ' ')
-				{
-					for(wordWrap = charsPerLine; wordWrap > charsPerLine / 2; wordWrap--)
-						if(line.charAt(wordWrap) == ' ')
-							break;
-					if(wordWrap == charsPerLine / 2)
-						continue;
-					wordWrap++;
-				}
-				else
-				{
-					for(wordWrap = charsPerLine; wordWrap < line.length(); wordWrap++)
-						if(line.charAt(wordWrap) != ' ')
-							break;
-					if(wordWrap == line.length())
-						continue;
-				}
-
-				//   find end of word before word being wrapped
-				for(wordEnd = wordWrap - 1; wordEnd > charsPerLine / 4; wordEnd--)
-					if(line.charAt(wordEnd) != ' ')
-						break;
-				if(wordEnd == charsPerLine / 4)
-					continue;
-				wordEnd++;
-
-				//   build replacement text
-				int length = line.length();
-				stringBuilder.setLength(0);
-				stringBuilder.append(line.substring(0, wordEnd)).append(eol).append(line.substring(wordWrap, length));
-				if(length > 0 && line.charAt(length - 1) != PARAGRAPH_END)
-				if(i < content.getLineCount() - 1)
-				{
-					String next = content.getLine(i + 1);
-					stringBuilder.append(' ').append(next);
-					length += eol.length() + next.length();
-				}
+		document.rewrapFromLine(content.getLineAtOffset(currentText.getCaretOffset()));
+	}
 
-				content.replaceTextRange(content.getOffsetAtLine(i), length, stringBuilder.toString());
-			}
-			else if(line.length() > 0 && line.charAt(line.length() - 1) == PARAGRAPH_END)
-				break;
-		}
+	/**
+	 * <p>
+	 * Works out how the whole document would be wrapped to
+	 * <code>charsPerLine</code>, without changing it, so that the new page
+	 * count can be shown first.
+	 * </p>
+	 *
+	 * @param charsPerLine the number of characters per line to wrap to
+	 *
+	 * @return the reflow to pass to {@link #applyReflow(BZDocument.Reflow)}
+	 *
+	 * @see BZDocument#reflow(int)
+	 */
+	public BZDocument.Reflow reflow(int charsPerLine)
+	{
+		return document.reflow(charsPerLine);
+	}
 
-		clearChanges();
+	/**
+	 * <p>
+	 * Replaces the text with the wrapped text of <code>reflow</code> and
+	 * sets the number of characters per line to what it was wrapped to.
+	 * </p><p>
+	 * This is one change that can be undone.
+	 * </p>
+	 *
+	 * @param reflow the reflow returned by {@link #reflow(int)}
+	 *
+	 * @return false if the text was changed after the reflow was worked out,
+	 *         and nothing was done
+	 */
+	public boolean applyReflow(BZDocument.Reflow reflow)
+	{
+		if(!reflow.apply())
+			return false;
+		setCharsPerLine(reflow.getCharsPerLine());
+		scrollToCaret();
+		updateStatus();
+		redraw();
+		return true;
 	}
 
 	private final class FocusHandler implements FocusListener
@@ -1230,6 +1330,8 @@ public class BZStyledText
 		public void focusGained(FocusEvent ignored)
 		{
 			currentText = source;
+			adjustOtherHandler.topPixel = source.getTopPixel();
+			updateStatus();
 		}
 
 		@Override
@@ -1251,33 +1353,39 @@ public class BZStyledText
 		@Override
 		public void caretMoved(CaretEvent ignored)
 		{
+			long startTime = keyTiming ? System.nanoTime() : 0;
+			updateCaret();
+			if(startTime != 0)
+				latency.record(BZLatency.CARET, System.nanoTime() - startTime);
+		}
+
+		private void updateCaret()
+		{
+			//   the other view is adjusted when the batch is committed
+			if(batchDepth > 0)
+				return;
+
 			int caretOffset = source.getCaretOffset();
 			int lineIndex = source.getLineAtOffset(caretOffset);
 			int lineOffset = source.getOffsetAtLine(lineIndex);
 
 			//   play line margin bell
-			if(lineMarginClip != null && lineMarginBell > 0 && caretOffset == prevCaretOffset + 1)
+			if(lineMarginSound != null && lineMarginBell > 0 && caretOffset == prevCaretOffset + 1)
 			{
 				if(caretOffset - lineOffset == lineMarginBell)
-				if(!lineMarginClip.isActive())
-				{
-					lineMarginClip.setFramePosition(0);
-					lineMarginClip.start();
-				}
+					audio.play(lineMarginSound);
 			}
 
 			//   play line end bell
-			if(lineEndClip != null && charsPerLine > 0 && caretOffset == prevCaretOffset + 1)
+			if(lineEndSound != null && getCharsPerLine() > 0 && caretOffset == prevCaretOffset + 1)
 			{
-				if(caretOffset - lineOffset == charsPerLine)
-					if(!lineEndClip.isActive())
-					{
-						lineEndClip.setFramePosition(0);
-						lineEndClip.start();
-					}
+				if(caretOffset - lineOffset == getCharsPerLine())
+					audio.play(lineEndSound);
 			}
 
 			prevCaretOffset = caretOffset;
+			if(source == currentText)
+				updateStatus();
 
 			//   scroll other text to match current
 			if(lineIndex == prevLineIndex)
@@ -1286,53 +1394,113 @@ public class BZStyledText
 			if(source != currentText)
 				return;
 
-			int sourceLinePixel = source.getLinePixel(lineIndex);
-			int sourceHeight = source.getClientArea().height;
-			int sourceLineHeight = source.getLineHeight();
-
-			//   check if have to wait until after paint event
-			if(sourceLinePixel < 0 || sourceLinePixel + sourceLineHeight > sourceHeight)
-				adjustOtherThread.waitPainted(source, other);
-			else
-				adjustOtherThread.adjustOther(source, other);
+			adjustOtherHandler.adjustLater(source, other);
 		}
 	}
 
 	/**
 	 * <p>
-	 * The caretMoved event may trigger a paint event.  The getLinePixel method
-	 * inside the caretMoved will return the pixel before the object has been
-	 * painted, and the value after it has been painted is needed to adjust the
-	 * other view.  So the object of this class will be notified after a paint
-	 * event has occurred and it will adjust the other view then.  Care must be
-	 * taken as some caretMoved events do not result in the object being
-	 * redrawn.
+	 * Scrolls the other view so that the line of the caret is at the same
+	 * height in both views.
+	 * </p><p>
+	 * The caretMoved event comes before the view scrolls to show the caret,
+	 * so the adjustment is posted with asyncExec to run once the event that
+	 * moved the caret is done and the view has scrolled.  The line pixels are
+	 * worked out from the top pixel and line height of each view, not from
+	 * what was painted, so this always works the first time.
+	 * </p><p>
+	 * Scrolling the current view with its scroll bar scrolls the other view
+	 * to the same line at the top, scaled by the line heights of the views,
+	 * so the caret line may be scrolled out of sight.  Any number of events
+	 * before the adjustment runs are adjusted once.
+	 * </p><p>
+	 * Not every way of scrolling sends an event, like the mouse wheel on
+	 * some platforms, so the top pixel of the current view is also checked
+	 * each time it is painted.
 	 * </p>
 	 */
-	private class AdjustOtherThread implements Runnable
+	private final class AdjustOtherHandler extends SelectionAdapter implements Runnable, Listener
 	{
-		private volatile boolean paintEvent;
 		private StyledText source, other;
-		private int tries;
+		private boolean posted, alignCaret;
+
+		//   of the current view when it was last adjusted or painted
+		private int topPixel;
 
-		private synchronized void adjustOther(StyledText source, StyledText other)
+		private void adjustLater(StyledText source, StyledText other)
 		{
-			if(source == null)
-				source = this.source;
-			if(other == null)
-				other = this.other;
+			alignCaret = true;
+			post(source, other);
+		}
 
-			if(source == null)
-			{
-				logWriter.println("WARNING:  attempting to adjust source but no source StyledText");
+		private void post(StyledText source, StyledText other)
+		{
+			this.source = source;
+			this.other = other;
+			if(posted)
 				return;
-			}
-			if(other == null)
-			{
-				logWriter.println("WARNING:  attempting to adjust other but no other StyledText");
+			posted = true;
+			parentShell.getDisplay().asyncExec(this);
+		}
+
+		@Override
+		public void run()
+		{
+			posted = false;
+			if(source.isDisposed() || other.isDisposed())
 				return;
-			}
+			if(alignCaret)
+				adjustOther(source, other);
+			else
+				adjustOtherTop(source, other);
+			alignCaret = false;
+			topPixel = source.getTopPixel();
+		}
+
+		//   scroll bar of either view moved
+		@Override
+		public void widgetSelected(SelectionEvent event)
+		{
+			if(batchDepth > 0 || event.widget != currentText.getVerticalBar())
+				return;
+			post(currentText, currentText == brailleText ? asciiText : brailleText);
+		}
+
+		//   mouse wheel over either view
+		@Override
+		public void handleEvent(Event event)
+		{
+			if(batchDepth > 0 || event.widget != currentText)
+				return;
+			post(currentText, currentText == brailleText ? asciiText : brailleText);
+		}
+
+		/**
+		 * <p>
+		 * Called when <code>source</code> is painted, to adjust the other
+		 * view if the current view was scrolled without an event.
+		 * </p>
+		 */
+		private void painted(StyledText source)
+		{
+			if(batchDepth > 0 || source != currentText || source.getTopPixel() == topPixel)
+				return;
+			topPixel = source.getTopPixel();
+			post(source, source == brailleText ? asciiText : brailleText);
+		}
+
+		private void adjustOtherTop(StyledText source, StyledText other)
+		{
+			int sourceTopPixel = source.getTopPixel();
+			int sourceLineHeight = source.getLineHeight();
+			int otherLineHeight = other.getLineHeight();
+			int line = sourceTopPixel / sourceLineHeight;
+			int part = sourceTopPixel % sourceLineHeight;
+			other.setTopPixel(line * otherLineHeight + part * otherLineHeight / sourceLineHeight);
+		}
 
+		private void adjustOther(StyledText source, StyledText other)
+		{
 			int caretOffset = source.getCaretOffset();
 			int lineIndex = source.getLineAtOffset(caretOffset);
 			int otherLineHeight = other.getLineHeight();
@@ -1372,65 +1540,56 @@ public class BZStyledText
 				source.setTopPixel(sourceTopPixel);
 			}
 
+			//   scrolling paints what it uncovers
 			other.setTopPixel(otherTopPixel);
-			redraw();
-		}
-
-		private synchronized void waitPainted(StyledText source, StyledText other)
-		{
-			if(this.source != null)
-			{
-				logWriter.println("WARNING:  attempting to wait to adjust other but already waiting");
-				return;
-			}
-
-			this.source = source;
-			this.other = other;
-			tries = 1;
-			paintEvent = false;
-			parentShell.getDisplay().asyncExec(this);
-		}
-
-		private synchronized void notifyPainted(StyledText source)
-		{
-			if(this.source == source)
-				paintEvent = true;
-		}
-
-		@Override
-		public synchronized void run()
-		{
-			if(!paintEvent)
-			{
-				logWriter.println("adjusting other try #" + ++tries);
-				if(tries > 2)
-				{
-					logWriter.println("ERROR:  adjusting other failed");
-					return;
-				}
-				parentShell.getDisplay().asyncExec(this);
-				return;
-			}
-
-			adjustOther(null, null);
-			source = other = null;
 		}
 	}
 
-	private final class PaintHandler implements PaintListener
+	/**
+	 * <p>
+	 * Draws the right margin, page lines and paragraph end markers, only
+	 * within the area being painted.
+	 * </p><p>
+	 * The width of each line that ends a paragraph is measured once and
+	 * kept until the line is changed or the font is, so painting the same
+	 * lines again, like when the caret moves, does not measure them again.
+	 * </p>
+	 */
+	private final class PaintHandler implements PaintListener, TextChangeListener
 	{
+		//   values of lineWidths for lines not measured or not ending a paragraph
+		private static final int UNKNOWN = -2, NO_MARKER = -1;
+
 		private final StyledText source;
 
 		private int charsPerLine, rightMargin;
+		private Font font;
+		private int markerSpan;
+		private int lineWidths[] = new int[1024];
+		private int lineCount;
 
 		private PaintHandler(StyledText source)
 		{
 			this.source = source;
+			styledTextContent.addTextChangeListener(this);
+			textSet(null);
 		}
 
 		@Override
 		public void paintControl(PaintEvent event)
 		{
+			long startTime = keyTime != 0 ? System.nanoTime() : 0;
+			adjustOtherHandler.painted(source);
+
+			//   widths depend on the font
+			if(!event.gc.getFont().equals(font))
+			{
+				font = event.gc.getFont();
+				markerSpan = event.gc.stringExtent(" ").y / 2;
+				charsPerLine = -1;
+				Arrays.fill(lineWidths, 0, lineCount, UNKNOWN);
+			}
+
 			/*   Using event.gc.getFontMetrics().getAverageCharWidth()) was not
 			     enough on low resolutions, as the rounding to an int seemed
 			     enough to screw up the right margin, even when using a
@@ -1446,43 +1605,190 @@ public class BZStyledText
 			}
 
 			int lineHeight = source.getLineHeight();
-			int drawHeight = source.getClientArea().height;
-			int drawWidth = source.getClientArea().width;
+			int left = event.x, right = event.x + event.width;
+			int top = event.y, bottom = event.y + event.height;
 
 			event.gc.setForeground(color);
 			event.gc.setBackground(color);
 
 			//   draw right margin
-			event.gc.drawLine(rightMargin, 0, rightMargin, drawHeight);
+			if(rightMargin >= left && rightMargin <= right)
+				event.gc.drawLine(rightMargin, top, rightMargin, bottom);
 
-			for(int i = source.getTopIndex(); i < source.getLineCount(); i++)
+			for(int i = source.getLineIndex(top); i < source.getLineCount(); i++)
 			{
-				//   draw page lines
 				int at = source.getLinePixel(i);
-				if(isFirstLineOnPage(i))
-					event.gc.drawLine(0, at, drawWidth, at);
+				if(at > bottom)
+					break;
+
+				//   draw page lines
+				if(document.isPageStart(i))
+					event.gc.drawLine(left, at, right, at);
 
 				//   draw paragraph end markers
-				String line = source.getLine(i);
-				if(line.length() > 0 && line.charAt(line.length() - 1) == PARAGRAPH_END)
+				int width = getLineWidth(event, i);
+				if(width != NO_MARKER)
 				{
-					Point point = event.gc.stringExtent(line);
-					int span = point.y / 2;
-					event.gc.fillOval(point.x + span / 2, at + span / 2, span, span);
+					int x = width + markerSpan / 2;
+					if(x <= right && x + markerSpan >= left)
+						event.gc.fillOval(x, at + markerSpan / 2, markerSpan, markerSpan);
 				}
 
 				//   check if line still visible
-				if(at + lineHeight > drawHeight)
+				if(at + lineHeight > bottom)
 					break;
 			}
 
-			adjustOtherThread.notifyPainted(source);
+			//   the chord typed is now painted
+			if(startTime != 0 && source == brailleText)
+			{
+				long endTime = System.nanoTime();
+				latency.record(BZLatency.PAINT, endTime - startTime);
+				latency.record(BZLatency.GLYPH, endTime - keyTime);
+				keyTime = 0;
+			}
+		}
+
+		/**
+		 * <p>
+		 * Returns the width of line <code>index</code> if it ends a
+		 * paragraph, measuring it only if it was not already.
+		 * </p>
+		 *
+		 * @return the width, or NO_MARKER if the line does not end a paragraph
+		 */
+		private int getLineWidth(PaintEvent event, int index)
+		{
+			if(index >= lineCount)
+				return NO_MARKER;
+			if(lineWidths[index] == UNKNOWN)
+			{
+				String line = content.getLine(index);
+				if(line.length() > 0 && line.charAt(line.length() - 1) == PARAGRAPH_END)
+					lineWidths[index] = event.gc.stringExtent(line).x;
+				else
+					lineWidths[index] = NO_MARKER;
+			}
+			return lineWidths[index];
+		}
+
+		//   the lines changed are measured again, the lines after are moved
+		@Override
+		public void textChanging(TextChangingEvent event)
+		{
+			int startLine = content.getLineAtOffset(event.start);
+			int oldEnd = startLine + event.replaceLineCount + 1;
+			int newEnd = startLine + event.newLineCount + 1;
+			int newCount = lineCount + event.newLineCount - event.replaceLineCount;
+			if(newCount > lineWidths.length)
+				lineWidths = Arrays.copyOf(lineWidths, Math.max(newCount, lineWidths.length * 2));
+			System.arraycopy(lineWidths, oldEnd, lineWidths, newEnd, lineCount - oldEnd);
+			Arrays.fill(lineWidths, startLine, newEnd, UNKNOWN);
+			lineCount = newCount;
+		}
+
+		@Override
+		public void textChanged(TextChangedEvent ignored){}
+
+		@Override
+		public void textSet(TextChangedEvent ignored)
+		{
+			lineCount = content.getLineCount();
+			if(lineCount > lineWidths.length)
+				lineWidths = new int[lineCount + lineCount / 2];
+			Arrays.fill(lineWidths, 0, lineCount, UNKNOWN);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Collects the lines that need to be repainted and repaints them at most
+	 * once a frame, only where they are visible in each view.
+	 * </p><p>
+	 * A view repaints the lines changed by an edit itself, but when lines
+	 * are added or removed the page lines below move, so those lines are
+	 * collected here.  Typing Enter many times in a row, or pasting, then
+	 * repaints each view once.
+	 * </p>
+	 */
+	private final class RepaintHandler implements Runnable, TextChangeListener
+	{
+		//   about 60 frames a second
+		private static final int FRAME_TIME = 16;
+
+		private int firstLine = Integer.MAX_VALUE, lastLine = -1;
+		private boolean scheduled;
+
+		private RepaintHandler()
+		{
+			styledTextContent.addTextChangeListener(this);
+		}
+
+		/**
+		 * <p>
+		 * Adds lines <code>first</code> to <code>last</code> to be
+		 * repainted in the next frame.
+		 * </p>
+		 */
+		private void addLines(int first, int last)
+		{
+			firstLine = Math.min(firstLine, first);
+			lastLine = Math.max(lastLine, last);
+			if(scheduled)
+				return;
+			scheduled = true;
+			parentShell.getDisplay().timerExec(FRAME_TIME, this);
+		}
+
+		@Override
+		public void run()
+		{
+			scheduled = false;
+			int first = firstLine, last = lastLine;
+			firstLine = Integer.MAX_VALUE;
+			lastLine = -1;
+			repaint(brailleText, first, last);
+			repaint(asciiText, first, last);
+		}
+
+		private void repaint(StyledText view, int first, int last)
+		{
+			if(view.isDisposed())
+				return;
+
+			//   only the lines that are visible
+			int height = view.getClientArea().height;
+			int lineHeight = view.getLineHeight();
+			first = Math.max(first, view.getTopIndex());
+			last = Math.min(last, Math.min(view.getLineCount() - 1, view.getTopIndex() + height / lineHeight + 1));
+			if(first > last)
+				return;
+
+			int top = view.getLinePixel(first);
+			int bottom = Math.min(view.getLinePixel(last) + lineHeight, height);
+			view.redraw(0, top, view.getClientArea().width, bottom - top, false);
+		}
+
+		@Override
+		public void textChanging(TextChangingEvent event)
+		{
+			//   page lines below move
+			if(event.replaceLineCount != event.newLineCount)
+				addLines(content.getLineAtOffset(event.start), Integer.MAX_VALUE);
+		}
+
+		@Override
+		public void textChanged(TextChangedEvent ignored){}
+
+		@Override
+		public void textSet(TextChangedEvent ignored)
+		{
+			addLines(0, Integer.MAX_VALUE);
 		}
 	}
 
 	private final class BrailleKeyHandler implements KeyListener, VerifyKeyListener
 	{
-		private static final String ASCII_BRAILLE = " A1B'K2L@CIF/MSP\"E3H9O6R^DJG>NTQ,*5<-U8V.%[$+X!&;:4\\0Z7(_?W]#Y)=";
 		private final boolean brailleEntry;
 
 		private char dotState, dotChar = 0x2800;
@@ -1577,10 +1883,32 @@ public class BZStyledText
 			//   insert resulting braille character
 			if(dotState == 0 && (dotChar & 0xff) != 0)
 			{
-				dotChar = ASCII_BRAILLE.charAt(dotChar & 0xff);
-				brailleText.insert(Character.toString(dotChar));
-				brailleText.setCaretOffset(brailleText.getCaretOffset() + 1);
-				dotChar = 0x2800;
+				final long time = System.nanoTime();
+				keyTime = time;
+				keyTiming = true;
+				try
+				{
+					dotChar = getAsciiBraille(dotChar);
+					brailleText.insert(Character.toString(dotChar));
+					brailleText.setCaretOffset(brailleText.getCaretOffset() + 1);
+					dotChar = 0x2800;
+				}
+				finally
+				{
+					keyTiming = false;
+				}
+				latency.record(BZLatency.INSERT, System.nanoTime() - time);
+
+				//   the view may not be painted, like when it is hidden
+				parentShell.getDisplay().timerExec(GLYPH_TIMEOUT, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if(keyTime == time)
+							keyTime = 0;
+					}
+				});
 			}
 		}
 
@@ -1607,12 +1935,8 @@ public class BZStyledText
 			{
 				//   play page bell
 				int index = styledText.getLineAtOffset(styledText.getCaretOffset());
-				if(index == prevLine + 1 && index % linesPerPage == pageMarginBell - 2)
-				if(!pageMarginClip.isActive())
-				{
-					pageMarginClip.setFramePosition(0);
-					pageMarginClip.start();
-				}
+				if(index == prevLine + 1 && document.getLineInPage(index) == pageMarginBell - 2)
+					audio.play(pageMarginSound);
 				prevLine = index;
 			}
 
@@ -1627,9 +1951,6 @@ public class BZStyledText
 	{
 		private final StyledText source;
 
-		//TODO:  should prev variables be reset on setText?
-		private int prevLineCount;
-
 		private ExtendedModifyHandler(StyledText source)
 		{
 			this.source = source;
@@ -1639,26 +1960,21 @@ public class BZStyledText
 		public void modifyText(ExtendedModifyEvent event)
 		{
 			//TODO:  is this ever not true?
-			if(source != currentText)
+			if(source != currentText || batchDepth > 0)
 				return;
 
-			if(undoing)
-				changes.add(changeIndex, event);
-			else if(redoing)
-				changes.add(changeIndex++, event);
-			else
+			long startTime = keyTiming ? System.nanoTime() : 0;
+
+			if(autoRewrap && !replaying && event.length > 0)
 			{
-				if(changeIndex < changes.size())
-					changes.subList(changeIndex, changes.size()).clear();
-				changes.add(changeIndex++, event);
+				int caretOffset = document.rewrapEdit(source.getCaretOffset());
+				if(caretOffset >= 0)
+					source.setCaretOffset(caretOffset);
 			}
-			undoing = redoing = false;
 
-			//   need to redraw page lines
-			int lineCount = source.getLineCount();
-			if(lineCount != prevLineCount)
-				redraw();
-			prevLineCount = lineCount;
+			updateStatus();
+			if(startTime != 0)
+				latency.record(BZLatency.MODIFY, System.nanoTime() - startTime);
 		}
 	}
 }
@@ -0,0 +1,143 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr;
+import org.aph.braillezephyr.document.BZContent;
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.custom.TextChangingEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Lets the views use the content of the document, which does not depend on
+ * SWT.  Each change to the content is passed on to the views as the
+ * events they expect.
+ * </p>
+ */
+final class BZStyledTextContent implements StyledTextContent, BZContent.ChangeListener
+{
+	private final BZContent content;
+	private final List<TextChangeListener> listeners = new ArrayList<>(4);
+
+	BZStyledTextContent(BZContent content)
+	{
+		this.content = content;
+		content.addChangeListener(this);
+	}
+
+	@Override
+	public void addTextChangeListener(TextChangeListener listener)
+	{
+		if(listener == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeTextChangeListener(TextChangeListener listener)
+	{
+		if(listener == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		listeners.remove(listener);
+	}
+
+	@Override
+	public int getCharCount()
+	{
+		return content.getCharCount();
+	}
+
+	@Override
+	public String getLine(int lineIndex)
+	{
+		return content.getLine(lineIndex);
+	}
+
+	@Override
+	public int getLineAtOffset(int offset)
+	{
+		return content.getLineAtOffset(offset);
+	}
+
+	@Override
+	public int getLineCount()
+	{
+		return content.getLineCount();
+	}
+
+	@Override
+	public String getLineDelimiter()
+	{
+		return content.getLineDelimiter();
+	}
+
+	@Override
+	public int getOffsetAtLine(int lineIndex)
+	{
+		return content.getOffsetAtLine(lineIndex);
+	}
+
+	@Override
+	public String getTextRange(int start, int length)
+	{
+		return content.getTextRange(start, length);
+	}
+
+	@Override
+	public void replaceTextRange(int start, int replaceLength, String text)
+	{
+		content.replaceTextRange(start, replaceLength, text);
+	}
+
+	@Override
+	public void setText(String text)
+	{
+		content.setText(text);
+	}
+
+	@Override
+	public void textChanging(int start, int replaceCharCount, int replaceLineCount, String newText, int newLineCount)
+	{
+		TextChangingEvent event = new TextChangingEvent(this);
+		event.start = start;
+		event.newText = newText;
+		event.replaceCharCount = replaceCharCount;
+		event.newCharCount = newText.length();
+		event.replaceLineCount = replaceLineCount;
+		event.newLineCount = newLineCount;
+		for(TextChangeListener listener : listeners)
+			listener.textChanging(event);
+	}
+
+	@Override
+	public void textChanged()
+	{
+		TextChangedEvent event = new TextChangedEvent(this);
+		for(TextChangeListener listener : listeners)
+			listener.textChanged(event);
+	}
+
+	@Override
+	public void textSet()
+	{
+		TextChangedEvent event = new TextChangedEvent(this);
+		for(TextChangeListener listener : listeners)
+			listener.textSet(event);
+	}
+}
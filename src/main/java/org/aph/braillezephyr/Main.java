@@ -15,6 +15,8 @@
 
 package org.aph.braillezephyr;
 
+import org.aph.braillezephyr.document.BZDocument.FileContents;
+import org.aph.braillezephyr.document.BZException;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.ShellEvent;
 import org.eclipse.swt.events.ShellListener;
@@ -25,6 +27,12 @@ import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.MessageBox;
 import org.eclipse.swt.widgets.Shell;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 /**
  * <p>
  * Contains the main method.
@@ -41,15 +49,58 @@ public final class Main
 
 	public static void main(String args[])
 	{
+		//   convert files without a display
+		if(args.length > 0 && args[0].equals("--convert"))
+			System.exit(new BZConverter(System.out, System.err).convert(args));
+
 		new Main(args);
 	}
 
 	public Main(String args[])
 	{
+		//   read files while the display is created
+		BZStartup startup = new BZStartup();
+		Future<File> brailleFontFile = startup.submit("braille font cache", new Callable<File>()
+		{
+			@Override
+			public File call() throws IOException
+			{
+				return BZFonts.getCacheFile(BZFonts.DEFAULT_FAMILY);
+			}
+		});
+		Future<List<String>> settingsLines = startup.submit("settings read", new Callable<List<String>>()
+		{
+			@Override
+			public List<String> call() throws IOException
+			{
+				return BZSettings.readLines(new File(BZSettings.getDefaultFileName()));
+			}
+		});
+
+		//   assume any argument is a file to open
+		FileContents fileContents = null;
+		Future<Void> fileReading = null;
+		if(args.length > 0)
+		{
+			String fileName = args[0];
+			FileContents contents = new FileContents(new File(fileName).length());
+			fileContents = contents;
+			fileReading = startup.submit("file read", new Callable<Void>()
+			{
+				@Override
+				public Void call() throws IOException, BZException
+				{
+					BZFile.readContents(fileName, contents);
+					return null;
+				}
+			});
+		}
+
 		//   must be before display is created (on Macs at least)
 		Display.setAppName("BrailleZephyr");
 
 		Display display = Display.getDefault();
+		startup.mark("display");
 
 		//   needed to catch Quit (Command-Q) on Macs
 		display.addListener(SWT.Close, new CloseHandler());
@@ -59,21 +110,51 @@ public final class Main
 		shell.setText("BrailleZephyr");
 		shell.addShellListener(new ShellHandler());
 
-		bzStyledText = new BZStyledText(shell);
+		bzStyledText = new BZStyledText(shell, brailleFontFile);
+		startup.mark("views");
 		bzFile = new BZFile(bzStyledText);
-		bzSettings = new BZSettings(bzStyledText);
+		bzSettings = new BZSettings(bzStyledText, settingsLines);
+		startup.mark("settings");
 		new BZMenu(bzStyledText, bzFile, bzSettings);
+		startup.mark("menu");
 
-		//   assume any argument is a file to open
-		if(args.length > 0)
-			bzFile.openFile(args[0]);
+		//   the bells are read after the settings choose them
+		startup.submit("bells decode", new Callable<Void>()
+		{
+			@Override
+			public Void call()
+			{
+				bzStyledText.preloadBells();
+				return null;
+			}
+		});
+
+		if(fileReading != null)
+			bzFile.openFile(args[0], fileContents, fileReading);
 
 		shell.open();
+		startup.mark("shell open");
+		startup.setLog(bzStyledText.getLog());
+
+		//   the window is shown once the events from opening it are handled
+		display.asyncExec(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				startup.mark("first window");
+			}
+		});
+
 		while(!shell.isDisposed())
 		if(!display.readAndDispatch())
 			display.sleep();
 
 		display.dispose();
+
+		//   let the settings and last messages be written
+		bzSettings.close(5000);
+		bzStyledText.getLog().close(1000);
 	}
 
 	private boolean checkClosing()
@@ -92,15 +173,23 @@ public final class Main
 				doit = bzFile.saveFile();
 		}
 
-		//   write settings file
+		//   wait for the text to be written
+		if(doit && !bzFile.finishSaving())
+			doit = false;
+
+		//   write settings file in the background, asking if it failed before
 		if(doit)
 		if(!bzSettings.writeSettings())
 		{
 			MessageBox messageBox = new MessageBox(shell, SWT.ICON_QUESTION | SWT.YES | SWT.NO | SWT.CANCEL);
-			messageBox.setMessage("Would you like to exit anyway?");
+			messageBox.setMessage("Unable to write settings file.  Would you like to exit anyway?");
 			doit = messageBox.open() == SWT.YES;
 		}
 
+		//   changes were saved or discarded, so they don't need recovering
+		if(doit)
+			bzFile.closeFile();
+
 		return doit;
 	}
 
@@ -0,0 +1,109 @@
+/* Copyright (C) 2015 American Printing House for the Blind Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aph.braillezephyr;
+import org.aph.braillezephyr.document.BZDocument.FileContents;
+import org.eclipse.swt.SWTError;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <p>
+ * Tests opening files with a display.  These are skipped when there is no
+ * display to open.
+ * </p>
+ */
+class BZFileTest
+{
+	private Display display;
+	private Shell shell;
+	private Path path;
+
+	@BeforeEach
+	void createShell()
+	{
+		try
+		{
+			display = new Display();
+		}
+		catch(SWTError | LinkageError error)
+		{
+			Assumptions.assumeTrue(false, "no display:  " + error.getMessage());
+		}
+		shell = new Shell(display);
+	}
+
+	@AfterEach
+	void dispose() throws Exception
+	{
+		if(display != null)
+			display.dispose();
+		if(path != null)
+			Files.deleteIfExists(path);
+	}
+
+	@Test
+	void cancelWhileStreaming() throws Exception
+	{
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < 100; i++)
+			text.append("ABCDEF\r\n");
+		path = Files.createTempFile("braillezephyr", ".brf");
+		Files.write(path, text.toString().getBytes(StandardCharsets.US_ASCII));
+
+		BZStyledText bzStyledText = new BZStyledText(shell);
+		BZFile bzFile = new BZFile(bzStyledText);
+
+		//   the text is all there, but reading does not end until cancelled
+		FileContents contents = new FileContents(Files.size(path));
+		BZFile.readContents(path.toString(), contents);
+		CompletableFuture<Void> reading = new CompletableFuture<>();
+		bzFile.openFile(path.toString(), contents, reading);
+
+		//   wait for the text to be shown and the progress dialog to open
+		assertTrue(waitFor(() -> !bzStyledText.getEditable() && shell.getShells().length > 0));
+
+		shell.getShells()[0].close();
+		assertTrue(bzStyledText.getEditable());
+
+		reading.cancel(false);
+		bzFile.closeFile();
+	}
+
+	private boolean waitFor(BooleanSupplier condition) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!condition.getAsBoolean())
+		{
+			if(System.currentTimeMillis() > deadline)
+				return false;
+			if(!display.readAndDispatch())
+				Thread.sleep(10);
+		}
+		return true;
+	}
+}